@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.derquinsej.stats.Counter;
+
+import com.google.common.base.Supplier;
+
+/**
+ * A process-wide memoizing supplier with refresh-ahead. The value is acquired
+ * from a provided supplier on the first call, blocking only the callers that
+ * arrive before it is available. Afterwards the current value is always served
+ * without locking; once it is older than the soft TTL a single reload is
+ * submitted to the provided executor, and the value is replaced when it
+ * finishes. If the reload fails the stale value keeps being served and a new
+ * reload is attempted after another TTL.
+ *
+ * @author Andres Rodriguez
+ */
+public final class RefreshingSupplier<T> implements Supplier<T> {
+	/**
+	 * Creates a new refreshing supplier.
+	 * @param supplier The supplier used to load the value. It must not return
+	 *            {@code null}.
+	 * @param softTtl Time after which the value is reloaded in the background.
+	 * @param unit Time unit of the TTL.
+	 * @param executor Executor used for background reloads.
+	 * @return The created supplier.
+	 */
+	public static <T> RefreshingSupplier<T> create(Supplier<? extends T> supplier, long softTtl, TimeUnit unit,
+			Executor executor) {
+		checkArgument(softTtl > 0, "The TTL %s is not > 0", softTtl);
+		return new RefreshingSupplier<T>(supplier, unit.toNanos(softTtl), executor);
+	}
+
+	/** Value supplier. */
+	private final Supplier<? extends T> supplier;
+	/** Soft TTL (ns). */
+	private final long ttl;
+	/** Reload executor. */
+	private final Executor executor;
+	/** Current entry. */
+	private volatile Entry<T> entry;
+	/** Whether a reload is in flight. */
+	private final AtomicBoolean reloading = new AtomicBoolean();
+	/** Reload task. */
+	private final Runnable reload = new Runnable() {
+		public void run() {
+			reload();
+		}
+	};
+	/** Number of loads. */
+	private final Counter loads = Counter.create();
+	/** Number of failed loads. */
+	private final Counter failures = Counter.create();
+
+	private RefreshingSupplier(Supplier<? extends T> supplier, long ttl, Executor executor) {
+		this.supplier = checkNotNull(supplier, "The supplier must be provided");
+		this.ttl = ttl;
+		this.executor = checkNotNull(executor, "The executor must be provided");
+	}
+
+	/**
+	 * Returns the current value, loading it in the calling thread if it is the
+	 * first call. Callers never wait for background reloads.
+	 * @throws RuntimeException if the initial load fails.
+	 */
+	public T get() {
+		Entry<T> e = entry;
+		if (e == null) {
+			e = initial();
+		}
+		if (System.nanoTime() - e.refreshAt >= 0 && reloading.compareAndSet(false, true)) {
+			try {
+				executor.execute(reload);
+			} catch (RejectedExecutionException ex) {
+				reloading.set(false);
+			}
+		}
+		return e.value;
+	}
+
+	/** Performs the initial load, only once. */
+	private synchronized Entry<T> initial() {
+		Entry<T> e = entry;
+		if (e == null) {
+			e = new Entry<T>(load(), System.nanoTime() + ttl);
+			entry = e;
+		}
+		return e;
+	}
+
+	private T load() {
+		loads.add();
+		try {
+			return checkNotNull(supplier.get(), "Null values not allowed");
+		} catch (RuntimeException e) {
+			failures.add();
+			throw e;
+		}
+	}
+
+	/** Background reload. */
+	private void reload() {
+		try {
+			entry = new Entry<T>(load(), System.nanoTime() + ttl);
+		} catch (RuntimeException e) {
+			// Keep serving the stale value and retry after another TTL.
+			entry = new Entry<T>(entry.value, System.nanoTime() + ttl);
+		} finally {
+			reloading.set(false);
+		}
+	}
+
+	/**
+	 * Returns whether a background reload is in flight.
+	 */
+	public boolean isReloading() {
+		return reloading.get();
+	}
+
+	/**
+	 * Returns the number of loads attempted.
+	 */
+	public long getLoads() {
+		return loads.getCount();
+	}
+
+	/**
+	 * Returns the number of failed loads.
+	 */
+	public long getFailures() {
+		return failures.getCount();
+	}
+
+	/** Value with its refresh time. */
+	private static final class Entry<T> {
+		final T value;
+		final long refreshAt;
+
+		Entry(T value, long refreshAt) {
+			this.value = value;
+			this.refreshAt = refreshAt;
+		}
+	}
+}
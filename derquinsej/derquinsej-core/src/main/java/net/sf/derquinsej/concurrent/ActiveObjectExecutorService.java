@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Executor service that tracks every submitted task as a request of an active
+ * object. A request is begun when the task is submitted and ended when the
+ * task completes or is cancelled, so stopping the active object waits for all
+ * the submitted work. Tasks are rejected as soon as the active object is not ON
+ * or its concurrency limiter refuses them.
+ * <p>
+ * Tasks created through {@code submit} and {@code invoke*} carry their own
+ * tracking state, so no additional object is allocated per task. Plain
+ * {@link #execute(Runnable)} calls need a small wrapper.
+ * <p>
+ * Shutdown is delegated to the active object: {@link #shutdown()} stops it
+ * asynchronously, having no effect if it is already stopping or off, and
+ * {@link #shutdownNow()} stops it immediately. If the active object is
+ * starting, {@link #shutdown()} waits for the startup first, and if it does
+ * not support asynchronous transitions the shutdown is performed by a new
+ * thread. The underlying executor is not shut down.
+ * @author Andres Rodriguez
+ */
+public final class ActiveObjectExecutorService extends AbstractExecutorService {
+	/** Task status: not submitted yet. */
+	private static final int NEW = 0;
+	/** Task status: request begun. */
+	private static final int BEGUN = 1;
+	/** Task status: running, the request is ended by the running thread. */
+	private static final int RUNNING = 2;
+	/** Task status: request ended or never begun. */
+	private static final int ENDED = 3;
+
+	/** Task status updater. */
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Task> STATUS = AtomicIntegerFieldUpdater.newUpdater(Task.class,
+			"status");
+
+	/** Active object. */
+	private final ActiveObjectSupport support;
+	/** Underlying executor. */
+	private final Executor executor;
+	/** Monitor notified when the active object leaves status ON. */
+	private final Object stopping = new Object();
+
+	/**
+	 * Constructor.
+	 * @param support Active object the tasks are tracked by.
+	 * @param executor Executor that actually runs the tasks.
+	 */
+	public ActiveObjectExecutorService(ActiveObjectSupport support, Executor executor) {
+		this.support = checkNotNull(support, "The active object must be provided");
+		this.executor = checkNotNull(executor, "The executor must be provided");
+		support.addStoppingListener(new Runnable() {
+			public void run() {
+				synchronized (stopping) {
+					stopping.notifyAll();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the active object the tasks are tracked by.
+	 */
+	public ActiveObjectSupport getSupport() {
+		return support;
+	}
+
+	/** Begins a request or rejects the task. */
+	private void begin() {
+		if (!support.tryBeginDetached()) {
+			throw new RejectedExecutionException("The active object does not accept new tasks");
+		}
+	}
+
+	/** Ends a request. */
+	private void end(long submitted) {
+		support.end(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new Task<T>(callable);
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new Task<T>(runnable, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	public void execute(Runnable command) {
+		checkNotNull(command);
+		if (command instanceof Task<?> && ((Task<?>) command).owner() == this) {
+			((Task<?>) command).submit();
+		} else {
+			final long submitted = System.nanoTime();
+			begin();
+			boolean ok = false;
+			try {
+				executor.execute(new Wrapper(command, submitted));
+				ok = true;
+			} finally {
+				if (!ok) {
+					end(submitted);
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#shutdown()
+	 */
+	public void shutdown() {
+		boolean interrupted = false;
+		while (true) {
+			final ActiveObjectStatus status = support.getStatus();
+			if (status == ActiveObjectStatus.STOPPING || status == ActiveObjectStatus.OFF) {
+				break;
+			}
+			try {
+				if (status == ActiveObjectStatus.STARTING) {
+					support.await(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				} else if (support.isAsynchronous()) {
+					support.stopAsynchronously();
+				} else {
+					stopInNewThread();
+				}
+			} catch (ConcurrentModificationException e) {
+				// A transition started concurrently, check again.
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the active object in a new thread, waiting for it to leave status
+	 * ON.
+	 */
+	private void stopInNewThread() throws InterruptedException {
+		final Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					support.stop();
+				} catch (RuntimeException e) {
+					// Concurrent transition or onStop failure, nobody to report to.
+				}
+			}
+		}, "active-object-shutdown");
+		thread.setDaemon(true);
+		thread.start();
+		// Bounded wait, in case the thread fails before leaving ON.
+		while (thread.isAlive() && support.getStatus() == ActiveObjectStatus.ON) {
+			awaitStopping(TimeUnit.MILLISECONDS.toNanos(100L));
+		}
+	}
+
+	/**
+	 * Waits for the active object to leave status ON.
+	 * @param nanos Maximum time to wait.
+	 */
+	private void awaitStopping(long nanos) throws InterruptedException {
+		synchronized (stopping) {
+			if (support.getStatus() == ActiveObjectStatus.ON) {
+				TimeUnit.NANOSECONDS.timedWait(stopping, nanos);
+			}
+		}
+	}
+
+	/**
+	 * Stops the active object immediately, without waiting for the submitted
+	 * tasks. As the tasks are queued in the underlying executor, they are not
+	 * returned.
+	 * @return The empty list.
+	 */
+	public List<Runnable> shutdownNow() {
+		support.stopNow();
+		return Collections.emptyList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#isShutdown()
+	 */
+	public boolean isShutdown() {
+		return support.getStatus() != ActiveObjectStatus.ON;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#isTerminated()
+	 */
+	public boolean isTerminated() {
+		return support.getStatus() == ActiveObjectStatus.OFF;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#awaitTermination(long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!isTerminated()) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			if (support.getStatus() == ActiveObjectStatus.ON) {
+				awaitStopping(remaining);
+			} else {
+				support.await(remaining, TimeUnit.NANOSECONDS);
+			}
+		}
+		return true;
+	}
+
+	/** Wrapper for plain runnables. */
+	private final class Wrapper implements Runnable {
+		private final Runnable command;
+		private final long submitted;
+
+		Wrapper(Runnable command, long submitted) {
+			this.command = command;
+			this.submitted = submitted;
+		}
+
+		public void run() {
+			try {
+				command.run();
+			} finally {
+				end(submitted);
+			}
+		}
+	}
+
+	/**
+	 * Tracked task. The request is ended once the task has run or, if it is
+	 * cancelled before starting, once it is done. A task cancelled while
+	 * running keeps its request until the run actually returns.
+	 */
+	private final class Task<T> extends FutureTask<T> {
+		/** Tracking status. */
+		volatile int status = NEW;
+		/** Submission time. */
+		private long submitted;
+
+		Task(Callable<T> callable) {
+			super(callable);
+		}
+
+		Task(Runnable runnable, T result) {
+			super(runnable, result);
+		}
+
+		ActiveObjectExecutorService owner() {
+			return ActiveObjectExecutorService.this;
+		}
+
+		void submit() {
+			submitted = System.nanoTime();
+			begin();
+			if (!STATUS.compareAndSet(this, NEW, BEGUN)) {
+				// Cancelled before submission
+				end(submitted);
+				return;
+			}
+			boolean ok = false;
+			try {
+				executor.execute(this);
+				ok = true;
+			} finally {
+				if (!ok) {
+					done();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			if (!STATUS.compareAndSet(this, BEGUN, RUNNING)) {
+				// Not tracked or cancelled before starting
+				super.run();
+				return;
+			}
+			try {
+				super.run();
+			} finally {
+				status = ENDED;
+				end(submitted);
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (STATUS.compareAndSet(this, BEGUN, ENDED)) {
+				end(submitted);
+			} else {
+				STATUS.compareAndSet(this, NEW, ENDED);
+			}
+		}
+	}
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.sf.derquinsej.collect.Hierarchy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Coordinates the lifecycle of a set of active objects with dependencies
+ * between them. Objects are started in topological order, running independent
+ * branches concurrently, and stopped in reverse order. If an object fails to
+ * start no further objects are started and the ones already started are
+ * stopped. This class is immutable and thread-safe, but concurrent lifecycle
+ * operations on the same graph are not coordinated.
+ * @author Andres Rodriguez
+ * @param <K> Type of the keys identifying the objects.
+ */
+public final class ActiveObjectGraph<K> {
+	/**
+	 * Returns a new builder.
+	 */
+	public static <K> Builder<K> builder() {
+		return new Builder<K>();
+	}
+
+	/** Keys, in topological order. */
+	private final ImmutableList<K> keys;
+	/** Objects, by index. */
+	private final ActiveObjectSupport[] objects;
+	/** Dependencies, by index. */
+	private final int[][] dependencies;
+	/** Dependents, by index. */
+	private final int[][] dependents;
+
+	private ActiveObjectGraph(Builder<K> builder) {
+		final int n = builder.objects.size();
+		final Map<K, Integer> index = Maps.newHashMapWithExpectedSize(n);
+		final List<K> sorted = Lists.newArrayListWithCapacity(n);
+		// Kahn's algorithm
+		final Map<K, Integer> pending = Maps.newHashMapWithExpectedSize(n);
+		final Map<K, List<K>> reverse = Maps.newHashMapWithExpectedSize(n);
+		for (K key : builder.objects.keySet()) {
+			final Collection<K> deps = builder.dependencies.get(key);
+			pending.put(key, deps.size());
+			for (K dep : deps) {
+				checkState(builder.objects.containsKey(dep), "Dependency %s of %s has not been added", dep, key);
+				List<K> list = reverse.get(dep);
+				if (list == null) {
+					list = Lists.newArrayList();
+					reverse.put(dep, list);
+				}
+				list.add(key);
+			}
+			if (deps.isEmpty()) {
+				sorted.add(key);
+			}
+		}
+		for (int i = 0; i < sorted.size(); i++) {
+			final List<K> list = reverse.get(sorted.get(i));
+			if (list != null) {
+				for (K dependent : list) {
+					final int p = pending.get(dependent) - 1;
+					pending.put(dependent, p);
+					if (p == 0) {
+						sorted.add(dependent);
+					}
+				}
+			}
+		}
+		checkState(sorted.size() == n, "Loop detected");
+		this.keys = ImmutableList.copyOf(sorted);
+		this.objects = new ActiveObjectSupport[n];
+		for (int i = 0; i < n; i++) {
+			final K key = keys.get(i);
+			index.put(key, i);
+			objects[i] = builder.objects.get(key);
+		}
+		this.dependencies = new int[n][];
+		this.dependents = new int[n][];
+		for (int i = 0; i < n; i++) {
+			final K key = keys.get(i);
+			dependencies[i] = indexes(builder.dependencies.get(key), index);
+			final List<K> list = reverse.get(key);
+			dependents[i] = list == null ? new int[0] : indexes(list, index);
+		}
+	}
+
+	private static <K> int[] indexes(Collection<K> keys, Map<K, Integer> index) {
+		final int[] result = new int[keys.size()];
+		int i = 0;
+		for (K key : keys) {
+			result[i++] = index.get(key);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the keys of the objects in topological order (every object
+	 * after its dependencies).
+	 */
+	public List<K> getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Returns the object with the specified key.
+	 * @param key Object key.
+	 * @return The requested object or {@code null} if not found.
+	 */
+	public ActiveObjectSupport get(K key) {
+		final int i = keys.indexOf(key);
+		return i < 0 ? null : objects[i];
+	}
+
+	/**
+	 * Starts every object once all its dependencies have been started. If any
+	 * object fails to start no more objects are started, the already started
+	 * ones are stopped in reverse order and the failure is propagated.
+	 * @param executor Executor used to start independent objects concurrently.
+	 * @return The startup report.
+	 * @throws IllegalStateException if any object fails to start. The cause is
+	 *             the exception thrown by the object.
+	 */
+	public Report<K> start(Executor executor) {
+		final Run run = new Run(executor, true, dependencies, dependents);
+		run.execute();
+		if (run.failure.get() != null) {
+			final Run stop = new Run(executor, false, dependents, dependencies);
+			stop.execute();
+			final Failure f = run.failure.get();
+			throw new IllegalStateException(String.format("Unable to start %s", keys.get(f.index)), f.cause);
+		}
+		return run.report();
+	}
+
+	/**
+	 * Stops every object once all the objects that depend on it have been
+	 * stopped. Failures do not prevent the rest of the objects from being
+	 * stopped.
+	 * @param executor Executor used to stop independent objects concurrently.
+	 * @return The shutdown report.
+	 * @throws IllegalStateException if any object fails to stop. The cause is
+	 *             the first exception thrown by an object.
+	 */
+	public Report<K> stop(Executor executor) {
+		final Run run = new Run(executor, false, dependents, dependencies);
+		run.execute();
+		final Failure f = run.failure.get();
+		if (f != null) {
+			throw new IllegalStateException(String.format("Unable to stop %s", keys.get(f.index)), f.cause);
+		}
+		return run.report();
+	}
+
+	/** Failure information. */
+	private static final class Failure {
+		final int index;
+		final Throwable cause;
+
+		Failure(int index, Throwable cause) {
+			this.index = index;
+			this.cause = cause;
+		}
+	}
+
+	/** A concurrent traversal of the graph. */
+	private final class Run {
+		private final Executor executor;
+		/** Whether objects are being started. */
+		private final boolean starting;
+		/** Edges that must be completed before a node. */
+		private final int[][] before;
+		/** Edges to notify after a node has completed. */
+		private final int[][] after;
+		/** Remaining predecessors, by index. */
+		private final AtomicInteger[] remaining;
+		/** Number of submitted but not completed nodes. */
+		private final AtomicInteger inProgress = new AtomicInteger();
+		/** First failure. */
+		private final AtomicReference<Failure> failure = new AtomicReference<Failure>();
+		/** Completion signal. */
+		private final CountDownLatch done = new CountDownLatch(1);
+		/** Start offsets (ns, -1 if not run). */
+		private final long[] begins;
+		/** End offsets (ns, -1 if not run). */
+		private final long[] ends;
+		/** Run start time. */
+		private long t0;
+
+		Run(Executor executor, boolean starting, int[][] before, int[][] after) {
+			this.executor = checkNotNull(executor, "An executor must be provided");
+			this.starting = starting;
+			this.before = before;
+			this.after = after;
+			final int n = objects.length;
+			this.remaining = new AtomicInteger[n];
+			this.begins = new long[n];
+			this.ends = new long[n];
+			for (int i = 0; i < n; i++) {
+				remaining[i] = new AtomicInteger(before[i].length);
+				begins[i] = -1L;
+				ends[i] = -1L;
+			}
+		}
+
+		void execute() {
+			t0 = System.nanoTime();
+			inProgress.incrementAndGet();
+			for (int i = 0; i < objects.length; i++) {
+				if (before[i].length == 0) {
+					submit(i);
+				}
+			}
+			completed();
+			Uninterruptibles.awaitUninterruptibly(done);
+		}
+
+		private void submit(final int i) {
+			inProgress.incrementAndGet();
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						process(i);
+					}
+				});
+			} catch (RuntimeException e) {
+				failure.compareAndSet(null, new Failure(i, e));
+				completed();
+			}
+		}
+
+		private void completed() {
+			if (inProgress.decrementAndGet() == 0) {
+				done.countDown();
+			}
+		}
+
+		private void process(int i) {
+			boolean ok = false;
+			begins[i] = System.nanoTime() - t0;
+			try {
+				if (starting) {
+					objects[i].start();
+				} else {
+					objects[i].stop();
+				}
+				ok = true;
+			} catch (Throwable t) {
+				failure.compareAndSet(null, new Failure(i, t));
+			} finally {
+				ends[i] = System.nanoTime() - t0;
+			}
+			// Startup is aborted on failure, but shutdown must go on.
+			if (ok || !starting) {
+				for (int j : after[i]) {
+					if (remaining[j].decrementAndGet() == 0 && (!starting || failure.get() == null)) {
+						submit(j);
+					}
+				}
+			}
+			completed();
+		}
+
+		Report<K> report() {
+			final long total = System.nanoTime() - t0;
+			final ImmutableMap.Builder<K, Long> durations = ImmutableMap.builder();
+			int last = -1;
+			for (int i = 0; i < objects.length; i++) {
+				if (ends[i] >= 0) {
+					durations.put(keys.get(i), ends[i] - begins[i]);
+					if (last < 0 || ends[i] > ends[last]) {
+						last = i;
+					}
+				}
+			}
+			// Critical path: walk back through the predecessor that finished last.
+			final List<K> path = Lists.newLinkedList();
+			long pathTime = 0L;
+			int current = last;
+			while (current >= 0) {
+				path.add(0, keys.get(current));
+				pathTime += ends[current] - begins[current];
+				int previous = -1;
+				for (int j : before[current]) {
+					if (ends[j] >= 0 && (previous < 0 || ends[j] > ends[previous])) {
+						previous = j;
+					}
+				}
+				current = previous;
+			}
+			return new Report<K>(durations.build(), ImmutableList.copyOf(path), pathTime, total);
+		}
+	}
+
+	/**
+	 * Report of a lifecycle operation on a graph.
+	 * @author Andres Rodriguez
+	 * @param <K> Type of the keys identifying the objects.
+	 */
+	public static final class Report<K> {
+		/** Durations by key (ns). */
+		private final ImmutableMap<K, Long> durations;
+		/** Critical path. */
+		private final ImmutableList<K> criticalPath;
+		/** Critical path time (ns). */
+		private final long criticalPathTime;
+		/** Total time (ns). */
+		private final long totalTime;
+
+		private Report(ImmutableMap<K, Long> durations, ImmutableList<K> criticalPath, long criticalPathTime,
+				long totalTime) {
+			this.durations = durations;
+			this.criticalPath = criticalPath;
+			this.criticalPathTime = criticalPathTime;
+			this.totalTime = totalTime;
+		}
+
+		/**
+		 * Returns the time spent by each object, in nanoseconds, in the order
+		 * the objects were processed.
+		 */
+		public Map<K, Long> getDurations() {
+			return durations;
+		}
+
+		/**
+		 * Returns the time spent by an object.
+		 * @param key Object key.
+		 * @param unit Time unit of the result.
+		 * @return The requested duration or -1 if the object was not processed.
+		 */
+		public long getDuration(K key, TimeUnit unit) {
+			final Long d = durations.get(key);
+			return d == null ? -1L : unit.convert(d, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Returns the critical path: the chain of dependent objects that
+		 * determined the total time, in processing order.
+		 */
+		public List<K> getCriticalPath() {
+			return criticalPath;
+		}
+
+		/**
+		 * Returns the sum of the times spent by the objects in the critical
+		 * path.
+		 * @param unit Time unit of the result.
+		 */
+		public long getCriticalPathTime(TimeUnit unit) {
+			return unit.convert(criticalPathTime, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Returns the total elapsed time.
+		 * @param unit Time unit of the result.
+		 */
+		public long getTotalTime(TimeUnit unit) {
+			return unit.convert(totalTime, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder b = new StringBuilder();
+			b.append(String.format((Locale) null, "Total time: %d ms, critical path: %d ms %s%n",
+					getTotalTime(TimeUnit.MILLISECONDS), getCriticalPathTime(TimeUnit.MILLISECONDS), criticalPath));
+			for (Entry<K, Long> e : durations.entrySet()) {
+				b.append(String.format((Locale) null, "  %s: %d ms%n", e.getKey(),
+						TimeUnit.NANOSECONDS.toMillis(e.getValue())));
+			}
+			return b.toString();
+		}
+	}
+
+	/**
+	 * Builder for active object graphs.
+	 * @author Andres Rodriguez
+	 * @param <K> Type of the keys identifying the objects.
+	 */
+	public static final class Builder<K> {
+		private final Map<K, ActiveObjectSupport> objects = Maps.newLinkedHashMap();
+		private final SetMultimap<K, K> dependencies = LinkedHashMultimap.create();
+
+		private Builder() {
+		}
+
+		/**
+		 * Adds an object.
+		 * @param key Object key.
+		 * @param object Object to add.
+		 * @return This builder.
+		 * @throws NullPointerException if any argument is {@code null}.
+		 * @throws IllegalArgumentException if the key has been previously added.
+		 */
+		public Builder<K> add(K key, ActiveObjectSupport object) {
+			checkNotNull(key, "Null keys not allowed");
+			checkNotNull(object, "Null objects not allowed");
+			checkArgument(!objects.containsKey(key), "Duplicate key %s", key);
+			objects.put(key, object);
+			return this;
+		}
+
+		/**
+		 * Adds an object with its dependencies.
+		 * @param key Object key.
+		 * @param object Object to add.
+		 * @param dependencies Keys of the objects that must be started before
+		 *            this one. They may be added later.
+		 * @return This builder.
+		 * @throws NullPointerException if any argument is {@code null}.
+		 * @throws IllegalArgumentException if the key has been previously added.
+		 */
+		public Builder<K> add(K key, ActiveObjectSupport object, Iterable<? extends K> dependencies) {
+			add(key, object);
+			for (K dependency : dependencies) {
+				dependsOn(key, dependency);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a dependency.
+		 * @param key Key of the dependent object.
+		 * @param dependency Key of the object that must be started before.
+		 * @return This builder.
+		 * @throws NullPointerException if any argument is {@code null}.
+		 * @throws IllegalArgumentException if an object is made dependent on
+		 *             itself.
+		 */
+		public Builder<K> dependsOn(K key, K dependency) {
+			checkNotNull(key, "Null keys not allowed");
+			checkNotNull(dependency, "Null dependencies not allowed");
+			checkArgument(!key.equals(dependency), "An object can't depend on itself");
+			dependencies.put(key, dependency);
+			return this;
+		}
+
+		/**
+		 * Adds all the objects of a hierarchy. Every object depends on its
+		 * parent.
+		 * @param hierarchy Hierarchy to add.
+		 * @return This builder.
+		 * @throws IllegalArgumentException if any key has been previously added.
+		 */
+		public Builder<K> add(Hierarchy<K, ? extends ActiveObjectSupport> hierarchy) {
+			checkNotNull(hierarchy, "The hierarchy must be provided");
+			for (K key : hierarchy.keySet()) {
+				add(key, hierarchy.get(key));
+				final K parent = hierarchy.getParentKey(key);
+				if (parent != null) {
+					dependsOn(key, parent);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Builds and returns a graph with the objects added up to the method
+		 * call.
+		 * @return The built graph.
+		 * @throws IllegalStateException if there are referenced dependencies
+		 *             that have not been added or a loop is detected.
+		 */
+		public ActiveObjectGraph<K> get() {
+			return new ActiveObjectGraph<K>(this);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.derquinsej.stats.AtomicTiming;
+import net.sf.derquinsej.stats.Timing;
+import net.sf.derquinsej.stats.Timings;
+
+/**
+ * Metrics collected by an active object: duration of requests, number of
+ * in-flight requests and time spent in the transient states. Instances of this
+ * class are MUTABLE and THREAD-SAFE, and are updated by the
+ * {@link ActiveObjectSupport} they are provided to.
+ * @author Andres Rodriguez
+ */
+public final class ActiveObjectMetrics {
+	/**
+	 * Creates a new metrics object.
+	 * @param unit Time unit for the collected timings.
+	 * @return The created object.
+	 */
+	public static ActiveObjectMetrics create(TimeUnit unit) {
+		return new ActiveObjectMetrics(checkNotNull(unit, "A time unit must be provided"));
+	}
+
+	/** Request durations. */
+	private final AtomicTiming requests;
+	/** Time spent in STARTING status. */
+	private final AtomicTiming starting;
+	/** Time spent in STOPPING status. */
+	private final AtomicTiming stopping;
+	/** Current number of in-flight requests. */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	/** Peak number of in-flight requests. */
+	private final AtomicInteger peak = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 * @param unit Time unit.
+	 */
+	private ActiveObjectMetrics(TimeUnit unit) {
+		this.requests = Timings.createAtomic(unit);
+		this.starting = Timings.createAtomic(unit);
+		this.stopping = Timings.createAtomic(unit);
+	}
+
+	/** Called when a request is admitted. */
+	void begin() {
+		final int current = inFlight.incrementAndGet();
+		int p;
+		do {
+			p = peak.get();
+		} while (current > p && !peak.compareAndSet(p, current));
+	}
+
+	/**
+	 * Called when a request is ended.
+	 * @param elapsed Request duration in nanoseconds. Ignored if less than zero.
+	 */
+	void end(long elapsed) {
+		inFlight.decrementAndGet();
+		if (elapsed >= 0) {
+			requests.add(elapsed, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Called when the object leaves the STARTING status successfully.
+	 * @param elapsed Time spent in nanoseconds.
+	 */
+	void started(long elapsed) {
+		starting.add(elapsed, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Called when the object leaves the STOPPING status.
+	 * @param elapsed Time spent in nanoseconds.
+	 */
+	void stopped(long elapsed) {
+		stopping.add(elapsed, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the duration of the measured requests. Requests whose duration
+	 * is unknown (e.g., ended in a different thread without providing it) are
+	 * not included.
+	 */
+	public Timing getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Returns the time spent in STARTING status, one measure per successful
+	 * startup. Aborted startups are not included.
+	 */
+	public Timing getStarting() {
+		return starting.get();
+	}
+
+	/**
+	 * Returns the time spent in STOPPING status, one measure per shutdown.
+	 */
+	public Timing getStopping() {
+		return stopping.get();
+	}
+
+	/**
+	 * Returns the current number of in-flight requests.
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Returns the peak number of in-flight requests.
+	 */
+	public int getPeakInFlight() {
+		return peak.get();
+	}
+
+	/**
+	 * Resets the peak number of in-flight requests to the current number.
+	 */
+	public void resetPeakInFlight() {
+		peak.set(inFlight.get());
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null, "[requests=%s, inFlight=%d, peak=%d, starting=%s, stopping=%s]",
+				requests, getInFlight(), getPeakInFlight(), starting, stopping);
+	}
+}
@@ -16,13 +16,22 @@
 package net.sf.derquinsej.concurrent;
 
 import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 /**
  * Support class for implementing active objects. This class provides basic
@@ -35,6 +44,12 @@ public final class ActiveObjectSupport {
 	private static final Off OFF = new Off();
 	/** Singleton ON state with zero in-flight requests. */
 	private static final On ON = new On();
+	/** Completed transition to ON. */
+	private static final ListenableFuture<ActiveObjectStatus> ON_FUTURE = Futures
+			.immediateFuture(ActiveObjectStatus.ON);
+	/** Completed transition to OFF. */
+	private static final ListenableFuture<ActiveObjectStatus> OFF_FUTURE = Futures
+			.immediateFuture(ActiveObjectStatus.OFF);
 
 	/** Action to perform when the object is started. */
 	private final Runnable onStart;
@@ -46,6 +61,18 @@ public final class ActiveObjectSupport {
 	/** Executor for asynchronous transitions. */
 	private final Executor executor;
 
+	/** Concurrency limiter (optional). */
+	private final ConcurrencyLimiter limiter;
+
+	/** Metrics (optional). */
+	private final ActiveObjectMetrics metrics;
+
+	/** Per-thread request start times (only if needed). */
+	private final ThreadLocal<StartTimes> startTimes;
+
+	/** Listeners run when the object leaves status ON. */
+	private final List<Runnable> stoppingListeners = new CopyOnWriteArrayList<Runnable>();
+
 	/** Current state. */
 	private final AtomicReference<State> currentState = new AtomicReference<State>(OFF);
 
@@ -57,13 +84,52 @@ public final class ActiveObjectSupport {
 	 *            startup.
 	 * @param executor Executor for asynchronous transitions. Set to {@code
 	 *            null} if you don't want support for asynchronous transitions.
+	 * @param limiter Concurrency limiter used for admission control of new
+	 *            requests. Set to {@code null} if you don't want to limit
+	 *            the number of in-flight requests.
+	 * @param metrics Metrics to update. Set to {@code null} if you don't want
+	 *            to collect metrics.
 	 */
 	public ActiveObjectSupport(final Runnable onStart, final Runnable onAbort, final Runnable onStop,
-			final Executor executor) {
+			final Executor executor, final ConcurrencyLimiter limiter, final ActiveObjectMetrics metrics) {
 		this.onStart = onStart;
 		this.onStop = onStop;
 		this.onAbort = onAbort;
 		this.executor = executor;
+		this.limiter = limiter;
+		this.metrics = metrics;
+		this.startTimes = (limiter != null || metrics != null) ? new StartTimesLocal() : null;
+	}
+
+	/**
+	 * Constructs a new object.
+	 * @param onStart Action to perform when the object is started.
+	 * @param onAbort Action to perform when the object is stopped.
+	 * @param onStop Action to perform when an exception is thrown during
+	 *            startup.
+	 * @param executor Executor for asynchronous transitions. Set to {@code
+	 *            null} if you don't want support for asynchronous transitions.
+	 * @param limiter Concurrency limiter used for admission control of new
+	 *            requests. Set to {@code null} if you don't want to limit
+	 *            the number of in-flight requests.
+	 */
+	public ActiveObjectSupport(final Runnable onStart, final Runnable onAbort, final Runnable onStop,
+			final Executor executor, final ConcurrencyLimiter limiter) {
+		this(onStart, onAbort, onStop, executor, limiter, null);
+	}
+
+	/**
+	 * Constructs a new object.
+	 * @param onStart Action to perform when the object is started.
+	 * @param onAbort Action to perform when the object is stopped.
+	 * @param onStop Action to perform when an exception is thrown during
+	 *            startup.
+	 * @param executor Executor for asynchronous transitions. Set to {@code
+	 *            null} if you don't want support for asynchronous transitions.
+	 */
+	public ActiveObjectSupport(final Runnable onStart, final Runnable onAbort, final Runnable onStop,
+			final Executor executor) {
+		this(onStart, onAbort, onStop, executor, null);
 	}
 
 	/**
@@ -85,6 +151,14 @@ public final class ActiveObjectSupport {
 		return currentState.get().getStatus();
 	}
 
+	/**
+	 * Returns the metrics collected by this object.
+	 * @return The metrics or {@code null} if no metrics are being collected.
+	 */
+	public ActiveObjectMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Check if the object is currently in a transient status.
 	 * @param state Current state.
@@ -106,6 +180,13 @@ public final class ActiveObjectSupport {
 		Preconditions.checkState(executor != null, "This object does not support asynchronous transitions");
 	}
 
+	/**
+	 * Returns whether the object supports asynchronous transitions.
+	 */
+	boolean isAsynchronous() {
+		return executor != null;
+	}
+
 	/**
 	 * Starts the object.
 	 * <ul>
@@ -127,7 +208,7 @@ public final class ActiveObjectSupport {
 	 * </ul></ul>
 	 */
 	public void start() {
-		while (!start(currentState.get(), true)) {
+		while (start(currentState.get(), true) == null) {
 			// try again
 		}
 	}
@@ -135,29 +216,39 @@ public final class ActiveObjectSupport {
 	/**
 	 * Starts the object asynchronously. Same operation that the synchronous
 	 * version. The checks are performed in the calling thread and the
-	 * transition in another thread.
+	 * transition in another thread. If the object is already starting, the
+	 * future of the startup in progress is returned.
+	 * @return A future that completes with status ON once the object has been
+	 *         started or fails with the exception thrown by the {@code onStart}
+	 *         block if the startup is aborted.
 	 */
-	public void startAsynchronously() {
+	public ListenableFuture<ActiveObjectStatus> startAsynchronously() {
 		supportsAsync();
-		while (!start(currentState.get(), false)) {
+		ListenableFuture<ActiveObjectStatus> future;
+		while ((future = start(currentState.get(), false)) == null) {
 			// try again
 		}
+		return future;
 	}
 
 	/**
 	 * Tries to start the object from an given state.
 	 * @param state Initial state.
 	 * @param sync If the transition is to be made synchronously.
-	 * @return false if the call must be retried.
+	 * @return The transition future or {@code null} if the call must be
+	 *         retried.
 	 */
-	private boolean start(State state, boolean sync) {
+	private ListenableFuture<ActiveObjectStatus> start(State state, boolean sync) {
 		if (state instanceof On) {
-			return true;
+			return ON_FUTURE;
+		}
+		if (!sync && state instanceof Starting) {
+			return ((Starting) state).future;
 		}
 		checkTransient(state);
 		final Starting starting = new Starting();
 		if (!currentState.compareAndSet(state, starting)) {
-			return false;
+			return null;
 		}
 		if (sync) {
 			doStart(starting);
@@ -169,7 +260,7 @@ public final class ActiveObjectSupport {
 			};
 			executor.execute(transition);
 		}
-		return true;
+		return starting.future;
 	}
 
 	/**
@@ -177,18 +268,26 @@ public final class ActiveObjectSupport {
 	 * @param starting Starting state.
 	 */
 	private void doStart(Starting starting) {
-		boolean ok = false;
+		Throwable failure = null;
 		try {
 			if (onStart != null) {
 				onStart.run();
 			}
 			currentState.compareAndSet(starting, ON);
-			ok = true;
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} catch (Error e) {
+			failure = e;
+			throw e;
 		} finally {
-			if (!ok) {
+			if (failure != null) {
 				abort();
 			}
-			starting.done();
+			if (metrics != null && failure == null) {
+				metrics.started(System.nanoTime() - starting.since);
+			}
+			starting.done(ActiveObjectStatus.ON, failure);
 		}
 	}
 
@@ -208,7 +307,7 @@ public final class ActiveObjectSupport {
 	}
 
 	public final void stop() {
-		while (!stop(currentState.get(), true)) {
+		while (stop(currentState.get(), true) == null) {
 			// try again
 		}
 	}
@@ -216,13 +315,20 @@ public final class ActiveObjectSupport {
 	/**
 	 * Stops the object asynchronously. Same operation that the synchronous
 	 * version. The checks are performed in the calling thread and the
-	 * transition in another thread.
+	 * transition in another thread. If the object is already stopping, the
+	 * future of the shutdown in progress is returned.
+	 * @return A future that completes with status OFF once the object has been
+	 *         stopped. If the {@code onStop} block throws an exception the
+	 *         object is stopped anyway but the future fails with such
+	 *         exception.
 	 */
-	public void stopAsynchronously() {
+	public ListenableFuture<ActiveObjectStatus> stopAsynchronously() {
 		supportsAsync();
-		while (!stop(currentState.get(), false)) {
+		ListenableFuture<ActiveObjectStatus> future;
+		while ((future = stop(currentState.get(), false)) == null) {
 			// try again
 		}
+		return future;
 	}
 
 	public final void stopNow() {
@@ -231,6 +337,28 @@ public final class ActiveObjectSupport {
 		}
 	}
 
+	/**
+	 * Adds a listener run when the object leaves status ON, before waiting for
+	 * the in-flight requests to end, e.g. to wake up threads that should
+	 * complete them. Listeners are run by the thread requesting the stop, so
+	 * they must not block. Exceptions thrown by them are ignored.
+	 * @param listener Listener to add.
+	 */
+	public void addStoppingListener(Runnable listener) {
+		stoppingListeners.add(Preconditions.checkNotNull(listener, "The listener must be provided"));
+	}
+
+	/** Runs the stopping listeners. */
+	private void stopping() {
+		for (Runnable listener : stoppingListeners) {
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				// ignore
+			}
+		}
+	}
+
 	private boolean isStopped(final State state) {
 		if (state instanceof Off) {
 			return true;
@@ -247,13 +375,17 @@ public final class ActiveObjectSupport {
 		if (!currentState.compareAndSet(state, stopping)) {
 			return false;
 		}
+		stopping();
 		stop(stopping);
 		return true;
 	}
 
-	private boolean stop(final State state, boolean sync) {
+	private ListenableFuture<ActiveObjectStatus> stop(final State state, boolean sync) {
+		if (!sync && (state instanceof Stopping || state instanceof Waiting)) {
+			return ((Awaitable) state).future;
+		}
 		if (isStopped(state)) {
-			return true;
+			return OFF_FUTURE;
 		}
 		if (state instanceof Waiting) {
 			throw new ConcurrentModificationException();
@@ -262,8 +394,9 @@ public final class ActiveObjectSupport {
 		final On on = (On) state;
 		final Waiting waiting = new Waiting(on);
 		if (!currentState.compareAndSet(state, waiting)) {
-			return false;
+			return null;
 		}
+		stopping();
 		final Runnable transition = new Runnable() {
 			public void run() {
 				try {
@@ -279,43 +412,212 @@ public final class ActiveObjectSupport {
 		} else {
 			executor.execute(transition);
 		}
-		return true;
+		return waiting.future;
 	}
 
 	private void stop(Awaitable stopping) {
+		Throwable failure = null;
 		try {
 			if (onStop != null) {
 				onStop.run();
 			}
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} catch (Error e) {
+			failure = e;
+			throw e;
 		} finally {
 			currentState.set(OFF);
-			stopping.done();
+			if (metrics != null) {
+				metrics.stopped(System.nanoTime() - stopping.since);
+			}
+			stopping.done(ActiveObjectStatus.OFF, failure);
 		}
 	}
 
+	/**
+	 * Begins a new request, that must be ended with {@link #end()} in the same
+	 * thread. Use {@link #beginDetached()} for requests ended elsewhere.
+	 * @throws IllegalStateException if the object is not ON.
+	 * @throws RejectedExecutionException if the concurrency limiter refuses the
+	 *             request.
+	 */
 	public void begin() {
-		boolean done = false;
-		do {
-			final State state = currentState.get();
-			Preconditions.checkState(state instanceof On, "The object does not accept new requests");
-			done = currentState.compareAndSet(state, new On((On) state, 1));
-		} while (!done);
+		begin(true, true);
+	}
+
+	/**
+	 * Tries to begin a new request, that must be ended with {@link #end()} in
+	 * the same thread. This method never blocks nor throws, so it can be used to
+	 * shed load as early as possible.
+	 * @return True if the request has been admitted, false if the object is not
+	 *         ON or the concurrency limiter refuses the request.
+	 */
+	public boolean tryBegin() {
+		return begin(false, true);
+	}
+
+	/**
+	 * Begins a new request that will be ended from a different thread with
+	 * {@link #end(long, TimeUnit)}. The caller is responsible for measuring the
+	 * duration of the request.
+	 * @throws IllegalStateException if the object is not ON.
+	 * @throws RejectedExecutionException if the concurrency limiter refuses the
+	 *             request.
+	 */
+	public void beginDetached() {
+		begin(true, false);
+	}
+
+	/**
+	 * Tries to begin a new request that will be ended from a different thread
+	 * with {@link #end(long, TimeUnit)}. This method never blocks nor throws.
+	 * @return True if the request has been admitted, false if the object is not
+	 *         ON or the concurrency limiter refuses the request.
+	 */
+	public boolean tryBeginDetached() {
+		return begin(false, false);
 	}
 
+	/**
+	 * Performs the admission of a new request.
+	 * @param fail Whether to throw an exception if the request is not admitted.
+	 * @param attached Whether the request start time is recorded in the
+	 *            calling thread.
+	 * @return True if the request has been admitted.
+	 */
+	private boolean begin(boolean fail, boolean attached) {
+		State state = currentState.get();
+		if (!(state instanceof On)) {
+			return notAccepted(fail);
+		}
+		if (limiter != null && !limiter.tryAcquire()) {
+			if (fail) {
+				throw new RejectedExecutionException("The object has reached its concurrency limit");
+			}
+			return false;
+		}
+		while (!currentState.compareAndSet(state, new On((On) state, 1))) {
+			state = currentState.get();
+			if (!(state instanceof On)) {
+				if (limiter != null) {
+					limiter.release(-1L);
+				}
+				return notAccepted(fail);
+			}
+		}
+		if (metrics != null) {
+			metrics.begin();
+		}
+		if (attached && startTimes != null) {
+			startTimes.get().push(System.nanoTime());
+		}
+		return true;
+	}
+
+	private static boolean notAccepted(boolean fail) {
+		Preconditions.checkState(!fail, "The object does not accept new requests");
+		return false;
+	}
+
+	/**
+	 * Ends a request started in the current thread with {@link #begin()} or
+	 * {@link #tryBegin()}. Start times recorded in the current thread and not
+	 * ended there (e.g., mismatched with {@link #end(long, TimeUnit)}) are
+	 * discarded once they outnumber the requests in flight, but may provide a
+	 * wrong duration until then.
+	 * @throws IllegalStateException if the object does not have any running
+	 *             requests.
+	 */
 	public void end() {
-		boolean done = false;
-		do {
+		long elapsed = -1L;
+		if (startTimes != null) {
+			final StartTimes times = startTimes.get();
+			times.trim(inFlight(currentState.get()));
+			if (!times.isEmpty()) {
+				elapsed = System.nanoTime() - times.pop();
+			}
+		}
+		doEnd(elapsed);
+	}
+
+	/**
+	 * Ends a request started with {@link #beginDetached()} or
+	 * {@link #tryBeginDetached()}.
+	 * @param elapsed Duration of the request. If the argument is less than zero
+	 *            it is not taken into account for latency measurements.
+	 * @param unit Time unit of the duration.
+	 * @throws IllegalStateException if the object does not have any running
+	 *             requests.
+	 */
+	public void end(long elapsed, TimeUnit unit) {
+		doEnd(elapsed < 0 ? -1L : unit.toNanos(elapsed));
+		if (startTimes != null) {
+			// Discard start times of attached requests ended by mistake here.
+			startTimes.get().trim(inFlight(currentState.get()));
+		}
+	}
+
+	/**
+	 * Returns the number of requests in flight in a state. A single thread can
+	 * not have more pending start times.
+	 */
+	private static int inFlight(State state) {
+		if (state instanceof On) {
+			return ((On) state).count;
+		}
+		if (state instanceof Waiting) {
+			return ((Waiting) state).remaining();
+		}
+		return 0;
+	}
+
+	/**
+	 * Performs the actual end of a request.
+	 * @param elapsed Duration of the request in nanoseconds (-1 if unknown).
+	 */
+	private void doEnd(long elapsed) {
+		Waiting waiting = null;
+		while (true) {
 			final State state = currentState.get();
 			if (state instanceof Waiting) {
-				((Waiting) state).end();
-				done = true;
-			} else {
-				Preconditions.checkState(state instanceof On, "The object does not have any running requests");
-				done = currentState.compareAndSet(state, new On((On) state, -1));
+				waiting = (Waiting) state;
+				Preconditions.checkState(waiting.tryEnd(), "The object does not have any running requests");
+				break;
+			}
+			Preconditions.checkState(state instanceof On && ((On) state).count > 0,
+					"The object does not have any running requests");
+			if (currentState.compareAndSet(state, new On((On) state, -1))) {
+				break;
+			}
+		}
+		// Updated once the request is accounted for, but before a stop waiting
+		// for it is released, so that it finds the limiter and metrics updated.
+		try {
+			if (limiter != null) {
+				limiter.release(elapsed);
+			}
+			if (metrics != null) {
+				metrics.end(elapsed);
 			}
-		} while (!done);
+		} finally {
+			if (waiting != null) {
+				waiting.ended();
+			}
+		}
 	}
 
+	/**
+	 * Waits for the current transition, if any, to finish. The state is read
+	 * once, so a transition started after this call is not waited for. Use the
+	 * futures returned by the asynchronous transitions to avoid races.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Time unit of the timeout.
+	 * @return False if the timeout elapsed before the transition finished.
+	 * @throws InterruptedException if the current thread is interrupted while
+	 *             waiting.
+	 */
 	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
 		final State state = currentState.get();
 		if (state instanceof Awaitable) {
@@ -341,17 +643,36 @@ public final class ActiveObjectSupport {
 	}
 
 	private static abstract class Awaitable extends State {
-		private final CountDownLatch latch = new CountDownLatch(1);
+		/** Transition completion. */
+		final SettableFuture<ActiveObjectStatus> future = SettableFuture.create();
+		/** Time at which the object entered this state. */
+		final long since = System.nanoTime();
 
 		Awaitable() {
 		}
 
 		final boolean await(long timeout, TimeUnit unit) throws InterruptedException {
-			return latch.await(timeout, unit);
+			try {
+				future.get(timeout, unit);
+			} catch (ExecutionException e) {
+				// the transition has finished anyway
+			} catch (TimeoutException e) {
+				return false;
+			}
+			return true;
 		}
 
-		final void done() {
-			latch.countDown();
+		/**
+		 * Completes the transition.
+		 * @param status Reached status.
+		 * @param failure Failure cause ({@code null} if successful).
+		 */
+		final void done(ActiveObjectStatus status, Throwable failure) {
+			if (failure == null) {
+				future.set(status);
+			} else {
+				future.setException(failure);
+			}
 		}
 	}
 
@@ -393,16 +714,38 @@ public final class ActiveObjectSupport {
 	}
 
 	private static final class Waiting extends Awaitable {
+		private final AtomicInteger remaining;
 		private final CountDownLatch latch;
 
 		Waiting(On on) {
+			this.remaining = new AtomicInteger(on.count);
 			this.latch = new CountDownLatch(on.count);
 		}
 
-		void end() {
+		/**
+		 * Accounts for the end of a request, which must be followed by
+		 * {@link #ended()}.
+		 * @return False if there are no running requests.
+		 */
+		boolean tryEnd() {
+			int r;
+			do {
+				r = remaining.get();
+				if (r == 0) {
+					return false;
+				}
+			} while (!remaining.compareAndSet(r, r - 1));
+			return true;
+		}
+
+		void ended() {
 			this.latch.countDown();
 		}
 
+		int remaining() {
+			return remaining.get();
+		}
+
 		void awaitRequests() throws InterruptedException {
 			latch.await();
 		}
@@ -412,4 +755,48 @@ public final class ActiveObjectSupport {
 			return ActiveObjectStatus.STOPPING;
 		}
 	}
+
+	/** Per-thread stack of request start times. */
+	private static final class StartTimes {
+		private long[] times = new long[4];
+		private int size = 0;
+
+		StartTimes() {
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void push(long time) {
+			if (size == times.length) {
+				final long[] grown = new long[size * 2];
+				System.arraycopy(times, 0, grown, 0, size);
+				times = grown;
+			}
+			times[size++] = time;
+		}
+
+		long pop() {
+			return times[--size];
+		}
+
+		/** Discards the oldest start times over the provided number. */
+		void trim(int max) {
+			if (size > max) {
+				System.arraycopy(times, size - max, times, 0, max);
+				size = max;
+			}
+		}
+	}
+
+	private static final class StartTimesLocal extends ThreadLocal<StartTimes> {
+		StartTimesLocal() {
+		}
+
+		@Override
+		protected StartTimes initialValue() {
+			return new StartTimes();
+		}
+	}
 }
@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.derquinsej.stats.AtomicTiming;
+import net.sf.derquinsej.stats.Counter;
+import net.sf.derquinsej.stats.Timing;
+import net.sf.derquinsej.stats.Timings;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Thread pool whose core size is adjusted from the measured queue wait and
+ * run time of its tasks. Once per control period a timer thread computes the
+ * average number of busy threads from the run time accumulated in the period
+ * (Little's law: arrival rate times run time), or the number of threads
+ * currently running tasks if greater, and sets the core size so that the busy
+ * threads represent the target utilization. If tasks waited in the queue
+ * longer than allowed, or the oldest queued task has already waited longer,
+ * the pool also grows by the queue length. The pool shrinks by at most one
+ * thread per period. Blocking and CPU bound workloads are both handled, as
+ * blocked time counts as run time, and the controller runs even if every
+ * thread is blocked and no task completes.
+ * <p>
+ * The pool is an active object: tasks are accepted only while it is ON, and
+ * stopping it waits for every accepted task to finish before shutting down
+ * the threads and the timer. {@link #shutdown()} stops it asynchronously and
+ * {@link #shutdownNow()} does so after discarding the queued tasks and
+ * interrupting the running ones, so both leave the pool OFF once it has
+ * terminated. A stopped pool cannot be restarted: starting it again fails
+ * with {@link IllegalStateException}. The core size is owned by the
+ * controller, so {@link #setCorePoolSize(int)} is not supported. Tasks are
+ * wrapped before being queued, so the runnables returned by
+ * {@link #shutdownNow()} are not the submitted ones.
+ * @author Andres Rodriguez
+ */
+public final class AdaptiveThreadPool extends ThreadPoolExecutor {
+	/**
+	 * Returns a new builder.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/** Executor for the asynchronous stops, a new daemon thread per stop. */
+	private static final Executor STOPPER = new Executor() {
+		public void execute(Runnable command) {
+			final Thread thread = new Thread(command, "adaptive-shutdown");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	};
+
+	/** Minimum number of threads. */
+	private final int minThreads;
+	/** Maximum number of threads. */
+	private final int maxThreads;
+	/** Target utilization. */
+	private final double targetUtilization;
+	/** Maximum acceptable mean queue wait (ns). */
+	private final long maxQueueWait;
+	/** Control period (ns). */
+	private final long period;
+	/** Thread factory, also used for the controller timer. */
+	private final ThreadFactory threadFactory;
+	/** Lifecycle support. */
+	private final ActiveObjectSupport support;
+	/** Controller timer, while the pool is running. */
+	private volatile ScheduledExecutorService timer;
+	/** Queue wait timing. */
+	private final AtomicTiming queueWait = Timings.createAtomic(TimeUnit.MICROSECONDS);
+	/** Run time timing. */
+	private final AtomicTiming runTime = Timings.createAtomic(TimeUnit.MICROSECONDS);
+	/** Completed tasks. */
+	private final AtomicLong completed = new AtomicLong();
+	/** Accumulated queue wait (ns). */
+	private final AtomicLong waitNanos = new AtomicLong();
+	/** Accumulated run time (ns). */
+	private final AtomicLong runNanos = new AtomicLong();
+	/** Start of the current control period. */
+	private final AtomicLong periodStart = new AtomicLong(System.nanoTime());
+	/** Completed tasks at the start of the period. */
+	private long lastCompleted;
+	/** Accumulated queue wait at the start of the period. */
+	private long lastWait;
+	/** Accumulated run time at the start of the period. */
+	private long lastRun;
+	/** Last computed utilization. */
+	private volatile double utilization;
+	/** Last computed target size. */
+	private volatile int target;
+	/** Number of resizes. */
+	private final Counter resizes = Counter.create();
+	/** Number of control periods that failed. */
+	private final Counter controlFailures = Counter.create();
+
+	private AdaptiveThreadPool(Builder b) {
+		super(b.minThreads, b.maxThreads, b.keepAlive, TimeUnit.NANOSECONDS, new LinkedBlockingQueue<Runnable>(),
+				b.threadFactory);
+		this.minThreads = b.minThreads;
+		this.maxThreads = b.maxThreads;
+		this.targetUtilization = b.targetUtilization;
+		this.maxQueueWait = b.maxQueueWait;
+		this.period = b.period;
+		this.target = b.minThreads;
+		this.threadFactory = b.threadFactory;
+		this.support = new ActiveObjectSupport(new Runnable() {
+			public void run() {
+				onStart();
+			}
+		}, null, new Runnable() {
+			public void run() {
+				onStop();
+			}
+		}, STOPPER);
+	}
+
+	private void onStart() {
+		checkState(!isShutdown(), "A stopped pool cannot be restarted");
+		prestartAllCoreThreads();
+		periodStart.set(System.nanoTime());
+		final ScheduledExecutorService t = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		t.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				tick();
+			}
+		}, period, period, TimeUnit.NANOSECONDS);
+		timer = t;
+	}
+
+	private void onStop() {
+		stopTimer();
+		super.shutdown();
+		awaitTerminationUninterruptibly();
+	}
+
+	/** Stops the controller timer, if running. */
+	private void stopTimer() {
+		final ScheduledExecutorService t = timer;
+		if (t != null) {
+			timer = null;
+			t.shutdownNow();
+		}
+	}
+
+	private void awaitTerminationUninterruptibly() {
+		boolean interrupted = false;
+		while (!isTerminated()) {
+			try {
+				super.awaitTermination(1L, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the lifecycle support object.
+	 */
+	public ActiveObjectSupport getSupport() {
+		return support;
+	}
+
+	/**
+	 * Starts the pool.
+	 */
+	public void start() {
+		support.start();
+	}
+
+	/**
+	 * Stops the pool, waiting for every accepted task to finish.
+	 */
+	public void stop() {
+		support.stop();
+	}
+
+	/**
+	 * Stops the pool asynchronously: new tasks are rejected at once and the
+	 * threads and the timer are shut down once every accepted task has
+	 * finished. If the pool is starting, the startup is waited for first.
+	 */
+	@Override
+	public void shutdown() {
+		stopAsynchronously();
+		super.shutdown();
+	}
+
+	/**
+	 * Stops the pool asynchronously, discarding the queued tasks and
+	 * interrupting the running ones.
+	 * @return The discarded tasks, wrapped.
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		stopAsynchronously();
+		final List<Runnable> discarded = super.shutdownNow();
+		for (int i = 0; i < discarded.size(); i++) {
+			support.end(-1L, TimeUnit.NANOSECONDS);
+		}
+		return discarded;
+	}
+
+	/** Moves the support out of status ON, without waiting for the tasks. */
+	private void stopAsynchronously() {
+		boolean interrupted = false;
+		while (true) {
+			final ActiveObjectStatus status = support.getStatus();
+			if (status == ActiveObjectStatus.STOPPING || status == ActiveObjectStatus.OFF) {
+				break;
+			}
+			try {
+				if (status == ActiveObjectStatus.STARTING) {
+					support.await(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				} else {
+					support.stopAsynchronously();
+				}
+			} catch (ConcurrentModificationException e) {
+				// A transition started concurrently, check again.
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Not supported, the core size is set by the controller.
+	 * @throws UnsupportedOperationException always.
+	 */
+	@Override
+	public void setCorePoolSize(int corePoolSize) {
+		throw new UnsupportedOperationException("The core size is set by the controller");
+	}
+
+	@Override
+	protected void terminated() {
+		stopTimer();
+		super.terminated();
+	}
+
+	/**
+	 * Executes a task.
+	 * @throws RejectedExecutionException if the pool is not ON.
+	 */
+	@Override
+	public void execute(Runnable command) {
+		checkNotNull(command, "The task must be provided");
+		if (!support.tryBeginDetached()) {
+			throw new RejectedExecutionException("The pool is not accepting tasks");
+		}
+		try {
+			super.execute(new Timed(command));
+		} catch (RuntimeException e) {
+			support.end(-1L, TimeUnit.NANOSECONDS);
+			throw e;
+		}
+	}
+
+	/** Records a finished task. */
+	private void finished(long wait, long run) {
+		queueWait.add(wait, TimeUnit.NANOSECONDS);
+		runTime.add(run, TimeUnit.NANOSECONDS);
+		waitNanos.addAndGet(wait);
+		runNanos.addAndGet(run);
+		completed.incrementAndGet();
+		support.end(wait + run, TimeUnit.NANOSECONDS);
+	}
+
+	/** Timer tick, runs the controller over the elapsed period. */
+	private void tick() {
+		final long now = System.nanoTime();
+		final long start = periodStart.getAndSet(now);
+		try {
+			control(now - start, now);
+		} catch (RuntimeException e) {
+			// Counted, the timer keeps running.
+			controlFailures.add();
+		}
+	}
+
+	/**
+	 * Controller, run by the timer thread.
+	 * @param elapsed Length of the period (ns).
+	 * @param now Current time (ns).
+	 */
+	private void control(long elapsed, long now) {
+		final long c = completed.get();
+		final long w = waitNanos.get();
+		final long r = runNanos.get();
+		final long tasks = c - lastCompleted;
+		final long waited = w - lastWait;
+		// Running tasks have not reported their run time yet.
+		final double busy = Math.max((double) (r - lastRun) / elapsed, getActiveCount());
+		final double meanWait = tasks > 0 ? (double) waited / tasks : 0.0;
+		final Runnable head = getQueue().peek();
+		final long oldest = head instanceof Timed ? now - ((Timed) head).queued : 0L;
+		lastCompleted = c;
+		lastWait = w;
+		lastRun = r;
+		final int core = getCorePoolSize();
+		utilization = busy / core;
+		int size = (int) Math.ceil(busy / targetUtilization);
+		if (meanWait > maxQueueWait || oldest > maxQueueWait) {
+			// Average queue length: arrival rate times mean queue wait.
+			final int queued = Math.max((int) Math.ceil((double) waited / elapsed), getQueue().size());
+			size = Math.max(size, core + Math.max(1, queued));
+		} else if (size < core) {
+			size = core - 1;
+		}
+		size = Math.max(minThreads, Math.min(maxThreads, size));
+		target = size;
+		if (size != core) {
+			super.setCorePoolSize(size);
+			resizes.add();
+		}
+	}
+
+	/**
+	 * Returns the queue wait timing.
+	 */
+	public Timing getQueueWait() {
+		return queueWait.get();
+	}
+
+	/**
+	 * Returns the run time timing.
+	 */
+	public Timing getRunTime() {
+		return runTime.get();
+	}
+
+	/**
+	 * Returns the utilization measured in the last control period, the
+	 * average number of busy threads divided by the core size.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	/**
+	 * Returns the core size chosen in the last control period.
+	 */
+	public int getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns the number of times the core size has been changed.
+	 */
+	public long getResizes() {
+		return resizes.getCount();
+	}
+
+	/**
+	 * Returns the number of control periods that failed with an exception.
+	 */
+	public long getControlFailures() {
+		return controlFailures.getCount();
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null,
+				"AdaptiveThreadPool[%s, core=%d, target=%d, utilization=%f, resizes=%d, failures=%d, wait=%s, run=%s]",
+				support.getStatus(), getCorePoolSize(), target, utilization, getResizes(), getControlFailures(),
+				getQueueWait(), getRunTime());
+	}
+
+	/** Timed task wrapper. */
+	private final class Timed implements Runnable {
+		private final Runnable task;
+		final long queued = System.nanoTime();
+
+		Timed(Runnable task) {
+			this.task = task;
+		}
+
+		public void run() {
+			final long t0 = System.nanoTime();
+			try {
+				task.run();
+			} finally {
+				finished(t0 - queued, System.nanoTime() - t0);
+			}
+		}
+	}
+
+	/**
+	 * Builder for adaptive thread pools.
+	 * @author Andres Rodriguez
+	 */
+	public static final class Builder {
+		private int minThreads = 1;
+		private int maxThreads = Runtime.getRuntime().availableProcessors() * 4;
+		private double targetUtilization = 0.8;
+		private long maxQueueWait = TimeUnit.MILLISECONDS.toNanos(10L);
+		private long period = TimeUnit.SECONDS.toNanos(1L);
+		private long keepAlive = TimeUnit.SECONDS.toNanos(60L);
+		private ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+				.setNameFormat("adaptive-%d").build();
+
+		private Builder() {
+		}
+
+		/**
+		 * Sets the bounds of the core size. Default [1, 4 * processors].
+		 */
+		public Builder threads(int min, int max) {
+			checkArgument(min > 0 && min <= max, "Invalid thread bounds [%s, %s]", min, max);
+			this.minThreads = min;
+			this.maxThreads = max;
+			return this;
+		}
+
+		/**
+		 * Sets the target utilization, in (0, 1]. Default 0.8.
+		 */
+		public Builder targetUtilization(double utilization) {
+			checkArgument(utilization > 0.0 && utilization <= 1.0, "Invalid utilization %s", utilization);
+			this.targetUtilization = utilization;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum acceptable mean queue wait. Default 10 ms.
+		 */
+		public Builder maxQueueWait(long time, TimeUnit unit) {
+			checkArgument(time >= 0, "Invalid queue wait %s", time);
+			this.maxQueueWait = unit.toNanos(time);
+			return this;
+		}
+
+		/**
+		 * Sets the control period. Default 1 s.
+		 */
+		public Builder period(long time, TimeUnit unit) {
+			checkArgument(time > 0, "Invalid period %s", time);
+			this.period = unit.toNanos(time);
+			return this;
+		}
+
+		/**
+		 * Sets the time idle threads over the core size are kept. Default 60 s.
+		 */
+		public Builder keepAlive(long time, TimeUnit unit) {
+			checkArgument(time >= 0, "Invalid keep alive %s", time);
+			this.keepAlive = unit.toNanos(time);
+			return this;
+		}
+
+		/**
+		 * Sets the thread factory. Default: daemon threads.
+		 */
+		public Builder threadFactory(ThreadFactory threadFactory) {
+			this.threadFactory = checkNotNull(threadFactory, "The thread factory must be provided");
+			return this;
+		}
+
+		/**
+		 * Builds the pool. The pool is initially OFF.
+		 */
+		public AdaptiveThreadPool get() {
+			return new AdaptiveThreadPool(this);
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Micro-batcher for concurrent producers. Items submitted by any number of
+ * threads are handed to a single consumer in batches of up to a maximum size,
+ * or after a maximum delay since the oldest pending item, whichever comes
+ * first. Submission is lock-free. The batcher is an active object: items are
+ * only accepted while it is ON, and stopping it waits for every accepted item
+ * to be handled. This class is thread-safe.
+ * @author Andres Rodriguez
+ * @param <T> Type of the items.
+ */
+public final class Batcher<T> {
+	/**
+	 * Batch handler.
+	 * @param <T> Type of the items.
+	 */
+	public interface Handler<T> {
+		/**
+		 * Handles a batch. The list must not be retained after the method
+		 * returns.
+		 * @param batch Items to handle.
+		 * @throws Exception if the batch could not be handled. Every item of
+		 *             the batch is failed with the exception.
+		 */
+		void handle(List<? extends T> batch) throws Exception;
+	}
+
+	/**
+	 * Creates a new batcher. The batcher is initially OFF.
+	 * @param handler Batch handler.
+	 * @param maxSize Maximum batch size.
+	 * @param maxDelay Maximum time an item waits for its batch to be filled.
+	 * @param unit Time unit of the maximum delay.
+	 * @param threadFactory Factory for the consumer thread.
+	 * @return The created batcher.
+	 * @throws IllegalArgumentException if the maximum batch size is not > 0 or
+	 *             the maximum delay is < 0.
+	 */
+	public static <T> Batcher<T> create(Handler<? super T> handler, int maxSize, long maxDelay, TimeUnit unit,
+			ThreadFactory threadFactory) {
+		checkNotNull(handler, "The handler must be provided");
+		checkArgument(maxSize > 0, "The maximum batch size %s is not > 0", maxSize);
+		checkArgument(maxDelay >= 0, "The maximum delay %s is < 0", maxDelay);
+		checkNotNull(threadFactory, "The thread factory must be provided");
+		return new Batcher<T>(handler, maxSize, unit.toNanos(maxDelay), threadFactory);
+	}
+
+	/**
+	 * Creates a new batcher with a daemon consumer thread. The batcher is
+	 * initially OFF.
+	 * @param handler Batch handler.
+	 * @param maxSize Maximum batch size.
+	 * @param maxDelay Maximum time an item waits for its batch to be filled.
+	 * @param unit Time unit of the maximum delay.
+	 * @return The created batcher.
+	 * @see #create(Handler, int, long, TimeUnit, ThreadFactory)
+	 */
+	public static <T> Batcher<T> create(Handler<? super T> handler, int maxSize, long maxDelay, TimeUnit unit) {
+		return create(handler, maxSize, maxDelay, unit, new ThreadFactoryBuilder().setDaemon(true)
+				.setNameFormat("batcher-%d").build());
+	}
+
+	/** Batch handler. */
+	private final Handler<? super T> handler;
+	/** Maximum batch size. */
+	private final int maxSize;
+	/** Maximum delay (ns). */
+	private final long maxDelay;
+	/** Consumer thread factory. */
+	private final ThreadFactory threadFactory;
+	/** Pending items. */
+	private final Queue<Entry<T>> queue = new ConcurrentLinkedQueue<Entry<T>>();
+	/** Number of pending items. */
+	private final AtomicInteger pending = new AtomicInteger();
+	/** Lifecycle support. */
+	private final ActiveObjectSupport support;
+	/** Consumer thread. */
+	private volatile Thread consumer;
+	/** Whether the batcher is ON, so partial batches may wait for more items. */
+	private volatile boolean running;
+	/** Whether the consumer must exit once the queue is empty. */
+	private volatile boolean done;
+
+	private Batcher(Handler<? super T> handler, int maxSize, long maxDelay, ThreadFactory threadFactory) {
+		this.handler = handler;
+		this.maxSize = maxSize;
+		this.maxDelay = maxDelay;
+		this.threadFactory = threadFactory;
+		this.support = new ActiveObjectSupport(new Runnable() {
+			public void run() {
+				onStart();
+			}
+		}, null, new Runnable() {
+			public void run() {
+				onStop();
+			}
+		}, null);
+		this.support.addStoppingListener(new Runnable() {
+			public void run() {
+				onStopping();
+			}
+		});
+	}
+
+	/**
+	 * Returns the lifecycle support object, e.g. to add the batcher to an
+	 * {@link ActiveObjectGraph}.
+	 */
+	public ActiveObjectSupport getSupport() {
+		return support;
+	}
+
+	/**
+	 * Starts the batcher.
+	 */
+	public void start() {
+		support.start();
+	}
+
+	/**
+	 * Stops the batcher, waiting for every accepted item to be handled.
+	 */
+	public void stop() {
+		support.stop();
+	}
+
+	/**
+	 * Returns the number of items waiting to be handled.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Submits an item.
+	 * @param item Item to submit.
+	 * @return A future that completes once the batch containing the item has
+	 *         been handled.
+	 * @throws RejectedExecutionException if the batcher is not ON.
+	 */
+	public ListenableFuture<Void> submit(T item) {
+		checkNotNull(item, "Null items not allowed");
+		if (!support.tryBeginDetached()) {
+			throw new RejectedExecutionException("The batcher is not accepting items");
+		}
+		final Entry<T> entry = new Entry<T>(item);
+		queue.offer(entry);
+		final int n = pending.incrementAndGet();
+		if (n == 1 || n == maxSize) {
+			LockSupport.unpark(consumer);
+		}
+		return entry.future;
+	}
+
+	private void onStart() {
+		running = true;
+		done = false;
+		final Thread thread = threadFactory.newThread(new Runnable() {
+			public void run() {
+				consume();
+			}
+		});
+		consumer = thread;
+		thread.start();
+	}
+
+	/** Flushes the partial batch as soon as the batcher leaves status ON. */
+	private void onStopping() {
+		running = false;
+		LockSupport.unpark(consumer);
+	}
+
+	private void onStop() {
+		done = true;
+		final Thread thread = consumer;
+		LockSupport.unpark(thread);
+		Uninterruptibles.joinUninterruptibly(thread);
+		consumer = null;
+	}
+
+	/** Consumer loop. */
+	private void consume() {
+		final List<Entry<T>> entries = Lists.newArrayListWithCapacity(maxSize);
+		final List<T> batch = Lists.newArrayListWithCapacity(maxSize);
+		while (true) {
+			final Entry<T> head = queue.peek();
+			if (head == null) {
+				if (done) {
+					return;
+				}
+				LockSupport.park(this);
+				continue;
+			}
+			// Flush immediately if full or stopping.
+			if (pending.get() < maxSize && running) {
+				final long wait = head.time + maxDelay - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+					continue;
+				}
+			}
+			Entry<T> entry;
+			while (entries.size() < maxSize && (entry = queue.poll()) != null) {
+				entries.add(entry);
+				batch.add(entry.item);
+			}
+			pending.addAndGet(-entries.size());
+			handle(entries, batch);
+			entries.clear();
+			batch.clear();
+		}
+	}
+
+	private void handle(List<Entry<T>> entries, List<T> batch) {
+		Throwable failure = null;
+		try {
+			handler.handle(batch);
+		} catch (Throwable t) {
+			failure = t;
+		}
+		final long now = System.nanoTime();
+		for (Entry<T> entry : entries) {
+			if (failure == null) {
+				entry.future.set(null);
+			} else {
+				entry.future.setException(failure);
+			}
+			support.end(now - entry.time, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/** Pending item. */
+	private static final class Entry<T> {
+		final T item;
+		final long time = System.nanoTime();
+		final SettableFuture<Void> future = SettableFuture.create();
+
+		Entry(T item) {
+			this.item = item;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+/**
+ * Admission control for requests. A limiter keeps track of the number of
+ * in-flight requests and refuses new ones once a limit has been reached. The
+ * limit may be fixed or adjusted according to the latencies reported when the
+ * requests are released. Implementations MUST be thread-safe.
+ * @author Andres Rodriguez
+ */
+public interface ConcurrencyLimiter {
+	/**
+	 * Tries to admit a new request. This method never blocks.
+	 * @return True if the request has been admitted and must be eventually
+	 *         released.
+	 */
+	boolean tryAcquire();
+
+	/**
+	 * Releases a previously admitted request.
+	 * @param latency Time elapsed since the request was admitted, in
+	 *            nanoseconds. If the argument is less than zero no sample is
+	 *            taken.
+	 * @throws IllegalStateException if there are no in-flight requests.
+	 */
+	void release(long latency);
+
+	/**
+	 * Returns the current limit.
+	 * @return The current maximum number of in-flight requests.
+	 */
+	int getLimit();
+
+	/**
+	 * Returns the current number of in-flight requests.
+	 * @return The current number of in-flight requests.
+	 */
+	int getInFlight();
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limiters factory. All provided implementations are lock-free and
+ * do not allocate memory when acquiring or releasing requests.
+ * @author Andres Rodriguez
+ */
+public final class ConcurrencyLimiters {
+	/** Default multiplicative decrease factor. */
+	private static final double DEFAULT_BACKOFF = 0.9;
+	/** Default number of samples after which the gradient limiter forgets its minimum latency. */
+	private static final int DEFAULT_PROBE = 1000;
+
+	/** Not instantiable. */
+	private ConcurrencyLimiters() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Creates a limiter with a fixed maximum number of in-flight requests.
+	 * @param limit Maximum number of in-flight requests.
+	 * @return The created limiter.
+	 * @throws IllegalArgumentException if the limit is not > 0.
+	 */
+	public static ConcurrencyLimiter fixed(int limit) {
+		checkArgument(limit > 0, "The limit %s is not > 0", limit);
+		return new Fixed(limit);
+	}
+
+	/**
+	 * Creates an additive-increase / multiplicative-decrease limiter. Every
+	 * request completed within the latency threshold increases the limit by
+	 * one (as long as the current limit is actually being used) and every
+	 * request over the threshold multiplies the limit by the backoff factor.
+	 * @param initial Initial limit.
+	 * @param min Minimum limit.
+	 * @param max Maximum limit.
+	 * @param threshold Latency threshold.
+	 * @param unit Unit of the latency threshold.
+	 * @param backoff Multiplicative decrease factor (0 < backoff < 1).
+	 * @return The created limiter.
+	 * @throws IllegalArgumentException if the limits are not 0 < min <= initial
+	 *             <= max, the threshold is not > 0 or the backoff factor is
+	 *             out of range.
+	 */
+	public static ConcurrencyLimiter aimd(int initial, int min, int max, long threshold, TimeUnit unit,
+			double backoff) {
+		checkLimits(initial, min, max);
+		checkArgument(threshold > 0, "The latency threshold %s is not > 0", threshold);
+		checkArgument(backoff > 0.0 && backoff < 1.0, "The backoff factor %s is not in (0, 1)", backoff);
+		return new AIMD(initial, min, max, checkNotNull(unit, "The time unit must be provided").toNanos(threshold),
+				backoff);
+	}
+
+	/**
+	 * Creates an additive-increase / multiplicative-decrease limiter with a
+	 * default backoff factor of 0.9.
+	 * @param initial Initial limit.
+	 * @param min Minimum limit.
+	 * @param max Maximum limit.
+	 * @param threshold Latency threshold.
+	 * @param unit Unit of the latency threshold.
+	 * @return The created limiter.
+	 * @see #aimd(int, int, int, long, TimeUnit, double)
+	 */
+	public static ConcurrencyLimiter aimd(int initial, int min, int max, long threshold, TimeUnit unit) {
+		return aimd(initial, min, max, threshold, unit, DEFAULT_BACKOFF);
+	}
+
+	/**
+	 * Creates a gradient (Vegas-style) limiter. The limiter tracks the
+	 * minimum observed latency as an estimation of the no-load latency and
+	 * moves the limit towards {@code limit * minLatency / latency + sqrt(limit)}
+	 * , so that the limit shrinks as soon as requests start queueing. The
+	 * minimum latency is forgotten periodically so that the limiter can adapt
+	 * to changes in the baseline.
+	 * @param initial Initial limit.
+	 * @param min Minimum limit.
+	 * @param max Maximum limit.
+	 * @param probe Number of samples after which the minimum latency is reset.
+	 * @return The created limiter.
+	 * @throws IllegalArgumentException if the limits are not 0 < min <= initial
+	 *             <= max or the probe interval is not > 0.
+	 */
+	public static ConcurrencyLimiter gradient(int initial, int min, int max, int probe) {
+		checkLimits(initial, min, max);
+		checkArgument(probe > 0, "The probe interval %s is not > 0", probe);
+		return new Gradient(initial, min, max, probe);
+	}
+
+	/**
+	 * Creates a gradient (Vegas-style) limiter that resets its minimum latency
+	 * every 1000 samples.
+	 * @param initial Initial limit.
+	 * @param min Minimum limit.
+	 * @param max Maximum limit.
+	 * @return The created limiter.
+	 * @see #gradient(int, int, int, int)
+	 */
+	public static ConcurrencyLimiter gradient(int initial, int min, int max) {
+		return gradient(initial, min, max, DEFAULT_PROBE);
+	}
+
+	private static void checkLimits(int initial, int min, int max) {
+		checkArgument(min > 0, "The minimum limit %s is not > 0", min);
+		checkArgument(min <= max, "The minimum limit %s is greater than the maximum %s", min, max);
+		checkArgument(initial >= min && initial <= max, "The initial limit %s is not in [%s, %s]", initial, min, max);
+	}
+
+	/** Base class for limiters. */
+	private static abstract class AbstractLimiter implements ConcurrencyLimiter {
+		/** Number of in-flight requests. */
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		AbstractLimiter() {
+		}
+
+		public final boolean tryAcquire() {
+			while (true) {
+				final int current = inFlight.get();
+				if (current >= getLimit()) {
+					return false;
+				}
+				if (inFlight.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		public final void release(long latency) {
+			int current;
+			do {
+				current = inFlight.get();
+				checkState(current > 0, "No in-flight requests to release");
+			} while (!inFlight.compareAndSet(current, current - 1));
+			if (latency >= 0) {
+				sample(latency, current);
+			}
+		}
+
+		public final int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * Takes a latency sample. Default implementation does nothing.
+		 * @param latency Latency in nanoseconds.
+		 * @param inFlight Number of in-flight requests when the request
+		 *            completed (including the request itself).
+		 */
+		void sample(long latency, int inFlight) {
+		}
+
+		@Override
+		public String toString() {
+			return String.format((Locale) null, "%s[limit=%d, inFlight=%d]", getClass().getSimpleName(), getLimit(),
+					getInFlight());
+		}
+	}
+
+	/** Fixed limiter. */
+	private static final class Fixed extends AbstractLimiter {
+		private final int limit;
+
+		Fixed(int limit) {
+			this.limit = limit;
+		}
+
+		public int getLimit() {
+			return limit;
+		}
+	}
+
+	/** Base class for adaptive limiters. */
+	private static abstract class Adaptive extends AbstractLimiter {
+		/** Current limit. */
+		private final AtomicInteger limit;
+		/** Minimum limit. */
+		private final int min;
+		/** Maximum limit. */
+		private final int max;
+
+		Adaptive(int initial, int min, int max) {
+			this.limit = new AtomicInteger(initial);
+			this.min = min;
+			this.max = max;
+		}
+
+		public final int getLimit() {
+			return limit.get();
+		}
+
+		@Override
+		final void sample(long latency, int inFlight) {
+			observe(latency);
+			while (true) {
+				final int current = limit.get();
+				final int next = Math.max(min, Math.min(max, computeLimit(current, latency, inFlight)));
+				if (next == current || limit.compareAndSet(current, next)) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Called once per sample before computing the new limit. Default
+		 * implementation does nothing.
+		 * @param latency Sampled latency in nanoseconds.
+		 */
+		void observe(long latency) {
+		}
+
+		/**
+		 * Computes the new limit. The result is clamped to the configured
+		 * bounds.
+		 * @param current Current limit.
+		 * @param latency Sampled latency in nanoseconds.
+		 * @param inFlight Number of in-flight requests when the request
+		 *            completed.
+		 * @return The new limit.
+		 */
+		abstract int computeLimit(int current, long latency, int inFlight);
+	}
+
+	/** AIMD limiter. */
+	private static final class AIMD extends Adaptive {
+		/** Latency threshold (ns). */
+		private final long threshold;
+		/** Backoff factor. */
+		private final double backoff;
+
+		AIMD(int initial, int min, int max, long threshold, double backoff) {
+			super(initial, min, max);
+			this.threshold = threshold;
+			this.backoff = backoff;
+		}
+
+		@Override
+		int computeLimit(int current, long latency, int inFlight) {
+			if (latency > threshold) {
+				return (int) (current * backoff);
+			}
+			// Only grow if the current limit is being used.
+			if (inFlight * 2 >= current) {
+				return current + 1;
+			}
+			return current;
+		}
+	}
+
+	/** Gradient limiter. */
+	private static final class Gradient extends Adaptive {
+		/** Smoothing factor. */
+		private static final double SMOOTHING = 0.2;
+		/** Minimum gradient allowed. */
+		private static final double MIN_GRADIENT = 0.5;
+
+		/** Probe interval. */
+		private final int probe;
+		/** Number of samples taken. */
+		private final AtomicLong samples = new AtomicLong();
+		/** Minimum latency observed (ns). */
+		private final AtomicLong minLatency = new AtomicLong(Long.MAX_VALUE);
+
+		Gradient(int initial, int min, int max, int probe) {
+			super(initial, min, max);
+			this.probe = probe;
+		}
+
+		@Override
+		void observe(long latency) {
+			if (samples.incrementAndGet() % probe == 0) {
+				minLatency.set(latency);
+				return;
+			}
+			while (true) {
+				final long current = minLatency.get();
+				if (latency >= current || minLatency.compareAndSet(current, latency)) {
+					return;
+				}
+			}
+		}
+
+		@Override
+		int computeLimit(int current, long latency, int inFlight) {
+			final long min = minLatency.get();
+			final double gradient = latency == 0 ? 1.0 : Math.max(MIN_GRADIENT, Math.min(1.0, (double) min / latency));
+			final double target = current * gradient + Math.sqrt(current);
+			if (target > current && inFlight * 2 < current) {
+				// Do not grow if the current limit is not being used.
+				return current;
+			}
+			final double delta = (target - current) * SMOOTHING;
+			return current + (int) (delta > 0 ? Math.ceil(delta) : Math.floor(delta));
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.sf.derquinsej.stats.AtomicTiming;
+import net.sf.derquinsej.stats.Counter;
+import net.sf.derquinsej.stats.Populations;
+import net.sf.derquinsej.stats.Timing;
+import net.sf.derquinsej.stats.Timings;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Hedged request executor. A request is a list of equivalent (idempotent)
+ * calls, one per replica. The first one is issued immediately and, if it has
+ * not answered within the hedge delay, the next one is issued, and so on. A
+ * failed call causes the next one to be issued immediately. The first success
+ * is returned and the remaining calls are cancelled. The hedge delay is the
+ * configured quantile of the observed latency, estimated from the mean and
+ * standard deviation of an {@link AtomicTiming} and clamped to the provided
+ * bounds. Every successful call is added to the timing, including those that
+ * answer after losing the race, so that hedging does not hide the slow tail
+ * the delay is computed from. If the executor rejects the first call the
+ * request fails with the {@link RejectedExecutionException}. A rejected hedge
+ * or failover counts as a failed call, so the request fails only when no
+ * other call is left in flight, and a rejected hedge timer just leaves the
+ * calls in flight to answer. This class is thread-safe.
+ * @author Andres Rodriguez
+ */
+public final class Hedger {
+	/**
+	 * Creates a new hedger.
+	 * @param executor Executor used to run the calls.
+	 * @param timer Executor used to schedule the hedges. It should not be
+	 *            saturated by the calls, or the hedges will be delayed.
+	 * @param timing Latency timing used to compute the hedge delay. Every
+	 *            successful call is added to it.
+	 * @param quantile Latency quantile used as hedge delay, e.g. 0.95.
+	 * @param minDelay Minimum hedge delay.
+	 * @param maxDelay Maximum hedge delay, used as well until latency samples
+	 *            are available.
+	 * @param unit Time unit of the delay bounds.
+	 * @return The created hedger.
+	 * @throws IllegalArgumentException if the quantile is not in (0, 1) or the
+	 *             delay bounds are not valid.
+	 */
+	public static Hedger create(ExecutorService executor, ScheduledExecutorService timer, AtomicTiming timing,
+			double quantile, long minDelay, long maxDelay, TimeUnit unit) {
+		checkNotNull(executor, "The executor must be provided");
+		checkNotNull(timer, "The timer must be provided");
+		checkNotNull(timing, "The timing must be provided");
+		checkArgument(quantile > 0.0 && quantile < 1.0, "The quantile %s is not in (0, 1)", quantile);
+		checkArgument(minDelay >= 0 && minDelay <= maxDelay, "Invalid delay bounds [%s, %s]", minDelay, maxDelay);
+		return new Hedger(executor, timer, timing, quantile, unit.toNanos(minDelay), unit.toNanos(maxDelay));
+	}
+
+	/**
+	 * Creates a new hedger that uses the same executor to run the calls and
+	 * schedule the hedges. As the hedge timers share the executor threads with
+	 * the calls, a saturated executor delays the hedges, precisely when they
+	 * are most needed. Use
+	 * {@link #create(ExecutorService, ScheduledExecutorService, AtomicTiming, double, long, long, TimeUnit)}
+	 * with a separate timer to avoid it.
+	 * @param executor Executor used to run the calls and schedule the hedges.
+	 * @param timing Latency timing used to compute the hedge delay. Every
+	 *            successful call is added to it.
+	 * @param quantile Latency quantile used as hedge delay, e.g. 0.95.
+	 * @param minDelay Minimum hedge delay.
+	 * @param maxDelay Maximum hedge delay, used as well until latency samples
+	 *            are available.
+	 * @param unit Time unit of the delay bounds.
+	 * @return The created hedger.
+	 * @throws IllegalArgumentException if the quantile is not in (0, 1) or the
+	 *             delay bounds are not valid.
+	 */
+	public static Hedger create(ScheduledExecutorService executor, AtomicTiming timing, double quantile,
+			long minDelay, long maxDelay, TimeUnit unit) {
+		return create(executor, executor, timing, quantile, minDelay, maxDelay, unit);
+	}
+
+	/**
+	 * Creates a new hedger with its own latency timing.
+	 * @see #create(ScheduledExecutorService, AtomicTiming, double, long, long,
+	 *      TimeUnit)
+	 */
+	public static Hedger create(ScheduledExecutorService executor, double quantile, long minDelay, long maxDelay,
+			TimeUnit unit) {
+		return create(executor, Timings.createAtomic(TimeUnit.MICROSECONDS), quantile, minDelay, maxDelay, unit);
+	}
+
+	/** Call executor. */
+	private final ExecutorService executor;
+	/** Hedge timer. */
+	private final ScheduledExecutorService timer;
+	/** Latency timing. */
+	private final AtomicTiming timing;
+	/** Hedge quantile. */
+	private final double quantile;
+	/** Minimum delay (ns). */
+	private final long minDelay;
+	/** Maximum delay (ns). */
+	private final long maxDelay;
+	/** Number of requests. */
+	private final Counter requests = Counter.create();
+	/** Number of hedged calls. */
+	private final Counter hedges = Counter.create();
+	/** Number of calls issued because of a failure. */
+	private final Counter failovers = Counter.create();
+
+	private Hedger(ExecutorService executor, ScheduledExecutorService timer, AtomicTiming timing, double quantile,
+			long minDelay, long maxDelay) {
+		this.executor = executor;
+		this.timer = timer;
+		this.timing = timing;
+		this.quantile = quantile;
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Returns the current hedge delay.
+	 * @param unit Time unit of the result.
+	 */
+	public long getDelay(TimeUnit unit) {
+		return unit.convert(getDelay(), TimeUnit.NANOSECONDS);
+	}
+
+	/** Returns the current hedge delay (ns). */
+	private long getDelay() {
+		final Timing t = timing.get();
+		if (t.getCount() == 0) {
+			return maxDelay;
+		}
+		final double q = Populations.normalQuantile(t).apply(quantile);
+		final long d = t.getTimeUnit().toNanos(Math.round(q));
+		return Math.max(minDelay, Math.min(maxDelay, d));
+	}
+
+	/**
+	 * Submits a hedged request. Cancelling the returned future cancels every
+	 * call in flight.
+	 * @param calls Calls, one per replica, in the order they should be issued.
+	 * @return The result of the first successful call, or the failure of the
+	 *         last one if all of them fail.
+	 * @throws IllegalArgumentException if no calls are provided.
+	 */
+	public <V> ListenableFuture<V> submit(List<? extends Callable<? extends V>> calls) {
+		final ImmutableList<Callable<? extends V>> list = ImmutableList.<Callable<? extends V>> copyOf(calls);
+		checkArgument(!list.isEmpty(), "At least one call must be provided");
+		requests.add();
+		final Request<V> request = new Request<V>(list, getDelay());
+		request.issue(null);
+		return request.result;
+	}
+
+	/**
+	 * Performs a hedged request, waiting for its result.
+	 * @param calls Calls, one per replica, in the order they should be issued.
+	 * @return The result of the first successful call.
+	 * @throws ExecutionException if every call fails. The cause is the
+	 *             failure of the last one.
+	 */
+	public <V> V call(List<? extends Callable<? extends V>> calls) throws ExecutionException {
+		return Uninterruptibles.getUninterruptibly(submit(calls));
+	}
+
+	/**
+	 * Returns the latency timing.
+	 */
+	public AtomicTiming getTiming() {
+		return timing;
+	}
+
+	/**
+	 * Returns the number of requests.
+	 */
+	public long getRequests() {
+		return requests.getCount();
+	}
+
+	/**
+	 * Returns the number of calls issued because the previous one did not
+	 * answer within the hedge delay.
+	 */
+	public long getHedges() {
+		return hedges.getCount();
+	}
+
+	/**
+	 * Returns the number of calls issued because the previous one failed.
+	 */
+	public long getFailovers() {
+		return failovers.getCount();
+	}
+
+	/**
+	 * Returns the hedge rate, the number of hedged calls per request.
+	 */
+	public double getHedgeRate() {
+		final long r = requests.getCount();
+		return r == 0 ? 0.0 : (double) hedges.getCount() / r;
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null, "Hedger[requests=%d, hedges=%d, failovers=%d, rate=%f, delay=%dus]",
+				getRequests(), getHedges(), getFailovers(), getHedgeRate(), getDelay(TimeUnit.MICROSECONDS));
+	}
+
+	/** Hedged request. */
+	private final class Request<V> implements Runnable {
+		/** Calls. */
+		private final ImmutableList<Callable<? extends V>> calls;
+		/** Hedge delay (ns). */
+		private final long delay;
+		/** Result. */
+		final SettableFuture<V> result = SettableFuture.create();
+		/** Index of the next call to issue. */
+		private final AtomicInteger next = new AtomicInteger();
+		/** Number of failed calls. */
+		private final AtomicInteger failures = new AtomicInteger();
+		/** Calls in flight, index n holds the hedge timer. */
+		private final AtomicReferenceArray<Future<?>> futures;
+
+		Request(ImmutableList<Callable<? extends V>> calls, long delay) {
+			this.calls = calls;
+			this.delay = delay;
+			this.futures = new AtomicReferenceArray<Future<?>>(calls.size() + 1);
+			result.addListener(new Runnable() {
+				public void run() {
+					cancelAll();
+				}
+			}, MoreExecutors.directExecutor());
+		}
+
+		/** Hedge timer. */
+		public void run() {
+			issue(hedges);
+		}
+
+		/**
+		 * Issues the next call, if any.
+		 * @param reason Counter of the reason for the call, if any.
+		 */
+		void issue(Counter reason) {
+			if (result.isDone()) {
+				return;
+			}
+			final int i = next.getAndIncrement();
+			final int n = calls.size();
+			if (i >= n) {
+				return;
+			}
+			if (reason != null) {
+				reason.add();
+			}
+			try {
+				set(i, executor.submit(new Attempt(calls.get(i))));
+			} catch (RejectedExecutionException e) {
+				if (i == 0) {
+					result.setException(e);
+				} else {
+					failed(e);
+				}
+				return;
+			}
+			if (i + 1 < n) {
+				try {
+					set(n, timer.schedule(this, delay, TimeUnit.NANOSECONDS));
+				} catch (RejectedExecutionException e) {
+					// No hedge, the calls in flight may still answer.
+				}
+			}
+		}
+
+		private void set(int i, Future<?> future) {
+			final Future<?> previous = futures.getAndSet(i, future);
+			if (previous != null && i == calls.size()) {
+				previous.cancel(false);
+			}
+			if (result.isDone()) {
+				future.cancel(true);
+			}
+		}
+
+		private void cancelAll() {
+			for (int i = 0; i < futures.length(); i++) {
+				final Future<?> f = futures.get(i);
+				if (f != null) {
+					f.cancel(true);
+				}
+			}
+		}
+
+		private void failed(Throwable t) {
+			if (failures.incrementAndGet() == calls.size()) {
+				result.setException(t);
+			} else {
+				issue(failovers);
+			}
+		}
+
+		/** Single call. */
+		private final class Attempt implements Runnable {
+			private final Callable<? extends V> call;
+
+			Attempt(Callable<? extends V> call) {
+				this.call = call;
+			}
+
+			public void run() {
+				if (result.isDone()) {
+					return;
+				}
+				final long t0 = System.nanoTime();
+				final V value;
+				try {
+					value = call.call();
+				} catch (Throwable t) {
+					failed(t);
+					return;
+				}
+				timing.add(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+				result.set(value);
+			}
+		}
+	}
+}
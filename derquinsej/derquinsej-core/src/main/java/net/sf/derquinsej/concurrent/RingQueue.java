@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, array-backed ring queue for a single consumer. Two
+ * flavors are provided: single producer (SPSC) and multiple producers (MPSC).
+ * Elements are not wrapped in nodes, so offering and polling do not allocate,
+ * and the head and tail indexes are padded to avoid false sharing between
+ * producers and the consumer. Only the consumer thread may call
+ * {@link #poll()}, {@link #peek()} and {@link #drain(Consumer, int)}; in the
+ * SPSC flavor only one thread at a time may call {@link #offer(Object)}.
+ * Iteration is not supported. The capacity is rounded up to a power of two.
+ * @author Andres Rodriguez
+ * @param <E> Type of the elements.
+ */
+public abstract class RingQueue<E> extends AbstractQueue<E> {
+	/**
+	 * Element consumer for batch draining.
+	 * @param <E> Type of the elements.
+	 */
+	public interface Consumer<E> {
+		/**
+		 * Accepts an element.
+		 * @param element Element removed from the queue.
+		 */
+		void accept(E element);
+	}
+
+	/**
+	 * Creates a single-producer, single-consumer queue.
+	 * @param capacity Minimum capacity.
+	 * @return The created queue.
+	 * @throws IllegalArgumentException if the capacity is not in [2, 2^30].
+	 */
+	public static <E> RingQueue<E> spsc(int capacity) {
+		return new Spsc<E>(capacity(capacity));
+	}
+
+	/**
+	 * Creates a multiple-producer, single-consumer queue.
+	 * @param capacity Minimum capacity.
+	 * @return The created queue.
+	 * @throws IllegalArgumentException if the capacity is not in [2, 2^30].
+	 */
+	public static <E> RingQueue<E> mpsc(int capacity) {
+		return new Mpsc<E>(capacity(capacity));
+	}
+
+	private static int capacity(int capacity) {
+		checkArgument(capacity >= 2 && capacity <= (1 << 30), "Invalid capacity %s", capacity);
+		int n = 2;
+		while (n < capacity) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	/** Slots. */
+	final AtomicReferenceArray<E> slots;
+	/** Index mask. */
+	final int mask;
+	/** Index of the next element to poll. */
+	final AtomicLong head = new PaddedAtomicLong();
+	/** Index of the next element to offer. */
+	final AtomicLong tail = new PaddedAtomicLong();
+
+	private RingQueue(int capacity) {
+		this.slots = new AtomicReferenceArray<E>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Returns the capacity.
+	 */
+	public final int getCapacity() {
+		return mask + 1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.Queue#poll()
+	 */
+	public final E poll() {
+		final long h = head.get();
+		final int i = (int) h & mask;
+		final E e = slots.get(i);
+		if (e == null) {
+			return null;
+		}
+		slots.lazySet(i, null);
+		head.lazySet(h + 1);
+		return e;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.Queue#peek()
+	 */
+	public final E peek() {
+		return slots.get((int) head.get() & mask);
+	}
+
+	/**
+	 * Removes up to the specified number of elements, handing them to a
+	 * consumer. Only the consumer thread may call this method.
+	 * @param consumer Element consumer.
+	 * @param limit Maximum number of elements to remove.
+	 * @return The number of elements removed.
+	 */
+	public final int drain(Consumer<? super E> consumer, int limit) {
+		checkNotNull(consumer, "The consumer must be provided");
+		final long h = head.get();
+		int n = 0;
+		for (; n < limit; n++) {
+			final int i = (int) (h + n) & mask;
+			final E e = slots.get(i);
+			if (e == null) {
+				break;
+			}
+			slots.lazySet(i, null);
+			head.lazySet(h + n + 1);
+			consumer.accept(e);
+		}
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public final int size() {
+		// Read head first so that the difference is never negative.
+		final long h = head.get();
+		final long size = tail.get() - h;
+		return (int) Math.max(0L, Math.min(getCapacity(), size));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.AbstractCollection#isEmpty()
+	 */
+	@Override
+	public final boolean isEmpty() {
+		return peek() == null;
+	}
+
+	/**
+	 * Iteration is not supported.
+	 * @throws UnsupportedOperationException always.
+	 */
+	@Override
+	public final Iterator<E> iterator() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null, "%s[capacity=%d, size=%d]", getClass().getSimpleName(), getCapacity(),
+				size());
+	}
+
+	/** Single producer queue. */
+	private static final class Spsc<E> extends RingQueue<E> {
+		Spsc(int capacity) {
+			super(capacity);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.Queue#offer(java.lang.Object)
+		 */
+		public boolean offer(E e) {
+			checkNotNull(e, "Null elements not allowed");
+			final long t = tail.get();
+			final int i = (int) t & mask;
+			// The slot is released by the consumer before advancing the head.
+			if (slots.get(i) != null) {
+				return false;
+			}
+			slots.lazySet(i, e);
+			tail.lazySet(t + 1);
+			return true;
+		}
+	}
+
+	/** Multiple producer queue. */
+	private static final class Mpsc<E> extends RingQueue<E> {
+		/** Producers' cached view of the head index. */
+		private final AtomicLong headCache = new PaddedAtomicLong();
+
+		Mpsc(int capacity) {
+			super(capacity);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.Queue#offer(java.lang.Object)
+		 */
+		public boolean offer(E e) {
+			checkNotNull(e, "Null elements not allowed");
+			final int capacity = getCapacity();
+			long limit = headCache.get() + capacity;
+			long t;
+			do {
+				t = tail.get();
+				if (t >= limit) {
+					final long h = head.get();
+					limit = h + capacity;
+					if (t >= limit) {
+						return false;
+					}
+					headCache.lazySet(h);
+				}
+			} while (!tail.compareAndSet(t, t + 1));
+			// Until this write is visible the consumer sees the slot as empty.
+			slots.lazySet((int) t & mask, e);
+			return true;
+		}
+	}
+
+	/** Atomic long padded to its own cache line. */
+	@SuppressWarnings("serial")
+	private static final class PaddedAtomicLong extends AtomicLong {
+		/** Padding. */
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import net.sf.derquinsej.stats.Counter;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Request coalescing utility. At most one load per key is in flight at any
+ * time: callers that request a key while it is being loaded receive the
+ * result of the in-flight load instead of starting a new one. Results are not
+ * cached, once a load finishes the next request starts a new one. This class
+ * is thread-safe.
+ * @author Andres Rodriguez
+ * @param <K> Type of the keys.
+ * @param <V> Type of the values.
+ */
+public final class SingleFlight<K, V> {
+	/**
+	 * Creates a new single-flight object.
+	 */
+	public static <K, V> SingleFlight<K, V> create() {
+		return new SingleFlight<K, V>();
+	}
+
+	/** In-flight loads. */
+	private final ConcurrentMap<K, ListenableFuture<V>> flights = Maps.newConcurrentMap();
+	/** Number of calls. */
+	private final Counter calls = Counter.create();
+	/** Number of loads. */
+	private final Counter loads = Counter.create();
+
+	private SingleFlight() {
+	}
+
+	/**
+	 * Returns the value for a key, loading it in the calling thread unless a
+	 * load for the same key is already in flight, in which case the calling
+	 * thread waits for its result.
+	 * @param key Key to load.
+	 * @param loader Loader to use if no load is in flight.
+	 * @return The loaded value.
+	 * @throws ExecutionException if the load fails. The cause is the exception
+	 *             thrown by the loader.
+	 */
+	public V get(K key, Callable<? extends V> loader) throws ExecutionException {
+		checkNotNull(key, "The key must be provided");
+		checkNotNull(loader, "The loader must be provided");
+		final SettableFuture<V> future = SettableFuture.create();
+		final ListenableFuture<V> current = flights.putIfAbsent(key, future);
+		calls.add();
+		if (current != null) {
+			return Uninterruptibles.getUninterruptibly(current);
+		}
+		loads.add();
+		try {
+			future.set(loader.call());
+		} catch (Throwable t) {
+			future.setException(t);
+		} finally {
+			flights.remove(key, future);
+		}
+		return Uninterruptibles.getUninterruptibly(future);
+	}
+
+	/**
+	 * Returns the value for a key asynchronously. If no load for the same key
+	 * is in flight, a new one is submitted to the provided executor.
+	 * Cancelling the returned future does not cancel the load, as it may be
+	 * shared with other callers.
+	 * @param key Key to load.
+	 * @param loader Loader to use if no load is in flight.
+	 * @param executor Executor to run the loader in.
+	 * @return The future value.
+	 */
+	public ListenableFuture<V> getAsync(final K key, final Callable<? extends V> loader, Executor executor) {
+		checkNotNull(key, "The key must be provided");
+		checkNotNull(loader, "The loader must be provided");
+		checkNotNull(executor, "The executor must be provided");
+		final ListenableFutureTask<V> task = ListenableFutureTask.create(new Callable<V>() {
+			public V call() throws Exception {
+				return loader.call();
+			}
+		});
+		final ListenableFuture<V> current = flights.putIfAbsent(key, task);
+		calls.add();
+		if (current != null) {
+			return Futures.nonCancellationPropagating(current);
+		}
+		loads.add();
+		task.addListener(new Runnable() {
+			public void run() {
+				flights.remove(key, task);
+			}
+		}, MoreExecutors.directExecutor());
+		try {
+			executor.execute(task);
+		} catch (RuntimeException e) {
+			task.cancel(false);
+			throw e;
+		}
+		return Futures.nonCancellationPropagating(task);
+	}
+
+	/**
+	 * Returns the number of loads in flight.
+	 */
+	public int getInFlight() {
+		return flights.size();
+	}
+
+	/**
+	 * Returns the number of calls.
+	 */
+	public long getCalls() {
+		return calls.getCount();
+	}
+
+	/**
+	 * Returns the number of loads performed.
+	 */
+	public long getLoads() {
+		return loads.getCount();
+	}
+
+	/**
+	 * Returns the number of calls that have been served by a load started by
+	 * another call.
+	 */
+	public long getCoalesced() {
+		return Math.max(0L, calls.getCount() - loads.getCount());
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null, "SingleFlight[calls=%d, loads=%d, coalesced=%d]", getCalls(), getLoads(),
+				getCoalesced());
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Per-key mutual exclusion. Two modes are provided:
+ * <ul>
+ * <li>Striped: a fixed number of locks, keys are mapped to them by hash. Memory
+ * is bounded but unrelated keys may share a lock.</li>
+ * <li>Weak: one lock per key, created lazily and weakly referenced, so it is
+ * reclaimed once no thread holds or waits for it. Exclusion is exact.</li>
+ * </ul>
+ * In both modes acquisitions and contended acquisitions (those that could not
+ * get the lock immediately) are counted per stripe, keys being mapped to
+ * counting stripes by hash in weak mode. This class is thread-safe.
+ * @author Andres Rodriguez
+ * @param <K> Type of the keys.
+ */
+public abstract class StripedLocks<K> {
+	/** Number of counting stripes in weak mode. */
+	private static final int WEAK_STRIPES = 16;
+
+	/**
+	 * Creates a striped lock set.
+	 * @param stripes Minimum number of stripes, rounded up to a power of two.
+	 * @return The created lock set.
+	 * @throws IllegalArgumentException if the number of stripes is not in [1,
+	 *             2^30].
+	 */
+	public static <K> StripedLocks<K> striped(int stripes) {
+		checkArgument(stripes > 0 && stripes <= (1 << 30), "Invalid number of stripes %s", stripes);
+		int n = 1;
+		while (n < stripes) {
+			n <<= 1;
+		}
+		return new Striped<K>(n);
+	}
+
+	/**
+	 * Creates a lock set with a lazily created, weakly referenced lock per key.
+	 * @return The created lock set.
+	 */
+	public static <K> StripedLocks<K> weak() {
+		return new Weak<K>();
+	}
+
+	/** Stripe mask. */
+	private final int mask;
+	/** Acquisitions per stripe. */
+	private final AtomicLongArray acquisitions;
+	/** Contended acquisitions per stripe. */
+	private final AtomicLongArray contended;
+
+	private StripedLocks(int stripes) {
+		this.mask = stripes - 1;
+		this.acquisitions = new AtomicLongArray(stripes);
+		this.contended = new AtomicLongArray(stripes);
+	}
+
+	/**
+	 * Spreads the key hash code, as the low bits are used to choose the stripe.
+	 */
+	private static int smear(int h) {
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+
+	/** Returns the stripe of a key. */
+	final int stripe(K key) {
+		return smear(key.hashCode()) & mask;
+	}
+
+	/**
+	 * Returns the lock for a key. Locking it directly bypasses the
+	 * acquisition counters. In weak mode the returned reference must be kept
+	 * until the lock is released.
+	 * @param key Key.
+	 * @return The lock protecting the key.
+	 */
+	public final Lock get(K key) {
+		return lock(checkNotNull(key, "The key must be provided"));
+	}
+
+	/** Returns the lock for a non-null key. */
+	abstract Lock lock(K key);
+
+	/**
+	 * Acquires the lock of a key, updating the counters.
+	 * @param key Key.
+	 * @return The acquired lock.
+	 */
+	private Lock acquire(K key) {
+		final Lock lock = get(key);
+		final int stripe = stripe(key);
+		if (!lock.tryLock()) {
+			contended.incrementAndGet(stripe);
+			lock.lock();
+		}
+		acquisitions.incrementAndGet(stripe);
+		return lock;
+	}
+
+	/**
+	 * Calls a callable holding the lock of a key.
+	 * @param key Key.
+	 * @param callable Callable to run.
+	 * @return The callable result.
+	 * @throws Exception if thrown by the callable.
+	 */
+	public final <V> V withLock(K key, Callable<V> callable) throws Exception {
+		checkNotNull(callable, "The callable must be provided");
+		final Lock lock = acquire(key);
+		try {
+			return callable.call();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs a task holding the lock of a key.
+	 * @param key Key.
+	 * @param task Task to run.
+	 */
+	public final void withLock(K key, Runnable task) {
+		checkNotNull(task, "The task must be provided");
+		final Lock lock = acquire(key);
+		try {
+			task.run();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of stripes.
+	 */
+	public final int getStripes() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns the number of acquisitions of a stripe.
+	 * @param stripe Stripe index.
+	 */
+	public final long getAcquisitions(int stripe) {
+		return acquisitions.get(stripe);
+	}
+
+	/**
+	 * Returns the number of contended acquisitions of a stripe.
+	 * @param stripe Stripe index.
+	 */
+	public final long getContended(int stripe) {
+		return contended.get(stripe);
+	}
+
+	/**
+	 * Returns the total number of acquisitions.
+	 */
+	public final long getAcquisitions() {
+		return sum(acquisitions);
+	}
+
+	/**
+	 * Returns the total number of contended acquisitions.
+	 */
+	public final long getContended() {
+		return sum(contended);
+	}
+
+	private static long sum(AtomicLongArray array) {
+		long s = 0L;
+		for (int i = 0; i < array.length(); i++) {
+			s += array.get(i);
+		}
+		return s;
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null, "%s[stripes=%d, acquisitions=%d, contended=%d]", getClass()
+				.getSimpleName(), getStripes(), getAcquisitions(), getContended());
+	}
+
+	/** Striped mode. */
+	private static final class Striped<K> extends StripedLocks<K> {
+		/** Locks. */
+		private final Lock[] locks;
+
+		Striped(int stripes) {
+			super(stripes);
+			this.locks = new Lock[stripes];
+			for (int i = 0; i < stripes; i++) {
+				locks[i] = new ReentrantLock();
+			}
+		}
+
+		@Override
+		Lock lock(K key) {
+			return locks[stripe(key)];
+		}
+	}
+
+	/** Weak mode. */
+	private static final class Weak<K> extends StripedLocks<K> {
+		/** Locks. */
+		private final ConcurrentMap<K, Lock> locks = new MapMaker().weakValues().makeMap();
+
+		Weak() {
+			super(WEAK_STRIPES);
+		}
+
+		@Override
+		Lock lock(K key) {
+			Lock lock = locks.get(key);
+			if (lock == null) {
+				final Lock created = new ReentrantLock();
+				lock = locks.putIfAbsent(key, created);
+				if (lock == null) {
+					lock = created;
+				}
+			}
+			return lock;
+		}
+	}
+}
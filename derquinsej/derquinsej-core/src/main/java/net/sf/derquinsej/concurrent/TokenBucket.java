@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free token bucket rate limiter. The whole state of the bucket (the
+ * available tokens and the last refill time) is encoded in a single atomic
+ * long holding the time at which the bucket would be empty if no tokens were
+ * refilled (the theoretical arrival time of the generic cell rate algorithm).
+ * The available tokens are {@code (now - state) / interval}, capped to the
+ * burst capacity, so acquiring permits is a single CAS with no lock and no
+ * allocation. This class is thread-safe.
+ * @author Andres Rodriguez
+ */
+public final class TokenBucket {
+	/**
+	 * Maximum time span handled (ns), leaving room for the nanoTime arithmetic
+	 * of the state. About 73 years.
+	 */
+	private static final long MAX_SPAN = Long.MAX_VALUE / 4;
+
+	/**
+	 * Creates a new token bucket. The bucket is initially full.
+	 * @param permitsPerSecond Refill rate.
+	 * @param burst Bucket capacity, the maximum number of permits that can be
+	 *            acquired at once after the bucket has been idle.
+	 * @return The created bucket.
+	 * @throws IllegalArgumentException if the rate is not in (0, 1e9], the
+	 *             burst capacity is not > 0 or filling the bucket would take
+	 *             too long to be represented.
+	 */
+	public static TokenBucket create(double permitsPerSecond, int burst) {
+		checkArgument(permitsPerSecond > 0.0 && permitsPerSecond <= 1e9, "Invalid rate %s", permitsPerSecond);
+		checkArgument(burst > 0, "The burst capacity %s is not > 0", burst);
+		final long interval = Math.max(1L, Math.round(1e9 / permitsPerSecond));
+		checkArgument(interval <= MAX_SPAN / burst, "The time to fill a bucket of %s permits at %s/s is too long",
+				burst, permitsPerSecond);
+		return new TokenBucket(interval, burst);
+	}
+
+	/** Nanoseconds between two permits. */
+	private final long interval;
+	/** Burst capacity. */
+	private final int burst;
+	/** Time span needed to fill the bucket (ns). */
+	private final long span;
+	/** Time at which the bucket would be empty. */
+	private final AtomicLong state;
+
+	private TokenBucket(long interval, int burst) {
+		this.interval = interval;
+		this.burst = burst;
+		this.span = interval * burst;
+		this.state = new AtomicLong(System.nanoTime() - span);
+	}
+
+	/**
+	 * Reserves permits.
+	 * @param permits Number of permits.
+	 * @param maxWait Maximum wait allowed (ns).
+	 * @return The time (as given by {@link System#nanoTime()}) at which the
+	 *         permits will be available or {@link Long#MIN_VALUE} if the
+	 *         permits could not be reserved within the allowed wait.
+	 */
+	private long reserve(int permits, long maxWait) {
+		checkArgument(permits > 0, "The number of permits %s is not > 0", permits);
+		checkArgument(permits <= MAX_SPAN / interval, "The time to refill %s permits is too long", permits);
+		final long cost = permits * interval;
+		while (true) {
+			final long now = System.nanoTime();
+			final long current = state.get();
+			// Tokens over the capacity are lost.
+			final long base = current - (now - span) < 0 ? now - span : current;
+			final long next = base + cost;
+			final long wait = next - now;
+			if (wait > maxWait) {
+				return Long.MIN_VALUE;
+			}
+			if (state.compareAndSet(current, next)) {
+				return wait <= 0 ? now : next;
+			}
+		}
+	}
+
+	/**
+	 * Acquires a permit if it is available immediately.
+	 * @return True if the permit has been acquired.
+	 */
+	public boolean tryAcquire() {
+		return tryAcquire(1);
+	}
+
+	/**
+	 * Acquires the specified number of permits if they are available
+	 * immediately.
+	 * @param permits Number of permits.
+	 * @return True if the permits have been acquired.
+	 * @throws IllegalArgumentException if the number of permits is not > 0 or
+	 *             is greater than the burst capacity, as such a request could
+	 *             never be satisfied immediately.
+	 */
+	public boolean tryAcquire(int permits) {
+		checkArgument(permits <= burst, "The number of permits %s is greater than the burst capacity %s", permits,
+				burst);
+		return reserve(permits, 0L) != Long.MIN_VALUE;
+	}
+
+	/**
+	 * Acquires the specified number of permits if they can be obtained within
+	 * the timeout. The permits are reserved immediately and the calling thread
+	 * is parked for the exact time needed for them to be refilled. The wait
+	 * is not interruptible.
+	 * @param permits Number of permits.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Time unit of the timeout.
+	 * @return True if the permits have been acquired.
+	 * @throws IllegalArgumentException if the number of permits is not > 0 or
+	 *             their refill time is too long to be represented.
+	 */
+	public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+		final long deadline = reserve(permits, Math.max(0L, checkNotNull(unit).toNanos(timeout)));
+		if (deadline == Long.MIN_VALUE) {
+			return false;
+		}
+		parkUntil(deadline);
+		return true;
+	}
+
+	/**
+	 * Acquires the specified number of permits, waiting as long as needed. The
+	 * wait is not interruptible.
+	 * @param permits Number of permits.
+	 * @return The time spent waiting in nanoseconds.
+	 * @throws IllegalArgumentException if the number of permits is not > 0 or
+	 *             their refill time is too long to be represented.
+	 */
+	public long acquire(int permits) {
+		final long t0 = System.nanoTime();
+		parkUntil(reserve(permits, Long.MAX_VALUE));
+		return System.nanoTime() - t0;
+	}
+
+	/**
+	 * Acquires a permit, waiting as long as needed.
+	 * @return The time spent waiting in nanoseconds.
+	 */
+	public long acquire() {
+		return acquire(1);
+	}
+
+	private static void parkUntil(long deadline) {
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+
+	/**
+	 * Returns the number of permits currently available.
+	 */
+	public int getAvailable() {
+		final long available = (System.nanoTime() - state.get()) / interval;
+		return (int) Math.max(0L, Math.min(burst, available));
+	}
+
+	/**
+	 * Returns the burst capacity.
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Returns the refill rate in permits per second.
+	 */
+	public double getRate() {
+		return 1e9 / interval;
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null, "TokenBucket[rate=%f/s, burst=%d, available=%d]", getRate(), burst,
+				getAvailable());
+	}
+}
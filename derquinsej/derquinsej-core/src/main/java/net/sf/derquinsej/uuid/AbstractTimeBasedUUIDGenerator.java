@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import java.util.UUID;
+
+/**
+ * Base class for time based (version 1) UUID generators. It holds the timer
+ * and the node configuration: the lower {@code bits} bits of the node field
+ * are fixed and the rest are random, taken from an {@link EntropySource}.
+ * 
+ * @author Andres Rodriguez
+ */
+abstract class AbstractTimeBasedUUIDGenerator extends AbstractUUIDGenerator {
+	/** Max sequence number. */
+	static final int MAX_SEQ = 0x3FFF;
+	/** Mask for the significant bits. */
+	static final long NODE_MASK = 0x0000FFFFFFFFFFFFL;
+	/** Multicast bit. */
+	static final long MULTICAST = 0x0000100000000000L;
+	/** Minimum number of bits of the node part. */
+	static final int MIN_NODE = 0;
+	/** Maximum number of bits of the node part. */
+	static final int MAX_NODE = 47;
+
+	/** UUID timer. */
+	final UUIDTimer timer;
+	/** Timer resolution. */
+	final long resolution;
+	/** Node number. */
+	final long node;
+	/** Mask for the random part of the node. */
+	final long randomMask;
+	/** Entropy source. */
+	final EntropySource entropy;
+
+	AbstractTimeBasedUUIDGenerator(UUIDTimer timer, long node, int bits, EntropySource entropy) {
+		if ( timer == null ) {
+			timer = SystemUUIDTimer.INSTANCE;
+		}
+		if ( entropy == null ) {
+			entropy = EntropySources.secure();
+		}
+		this.timer = timer;
+		this.entropy = entropy;
+		this.resolution = timer.getResolution();
+		bits = Math.max(MIN_NODE, bits);
+		bits = Math.min(MAX_NODE, bits);
+		if ( bits == MAX_NODE ) {
+			this.node = ((node | MULTICAST) & NODE_MASK);
+			this.randomMask = 0L;
+		} else if ( bits == 0 ) {
+			this.node = MULTICAST;
+			this.randomMask = NODE_MASK;
+		} else {
+			this.node = ((NODE_MASK >>> (48-bits)) & node) | MULTICAST;
+			this.randomMask = (NODE_MASK << bits) & NODE_MASK;
+		}
+	}
+	
+	/**
+	 * Returns a random initial clock sequence.
+	 */
+	final int initialSequence() {
+		return (int) (entropy.nextLong() & MAX_SEQ);
+	}
+	
+	/**
+	 * Returns the node field.
+	 */
+	final long getNode() {
+		if ( randomMask == 0L ) {
+			return node;
+		}
+		return node | (entropy.nextLong() & randomMask);
+	}
+
+	/**
+	 * Completes a bulk generation. On entry the arrays hold the reserved times
+	 * and clock sequences; on exit, the UUIDs.
+	 * @param msb Times, replaced by the most significant bits.
+	 * @param lsb Clock sequences, replaced by the least significant bits.
+	 */
+	final void complete(long[] msb, long[] lsb) {
+		final int n = msb.length;
+		for (int i = 0; i < n; i++) {
+			msb[i] = msb(msb[i]);
+			lsb[i] = lsb((int) lsb[i], getNode());
+		}
+	}
+
+	/**
+	 * Returns the most significant bits of a version 1 UUID.
+	 * @param time Time component (60 bits).
+	 */
+	static long msb(final long time) {
+		long hi = 0x0000000000001000L; // version
+		hi |= (time << 32); // time_low
+		hi |= ((time >>> 16) & 0x00000000FFFF0000L); // time_mid
+		hi |= ((time >>> 48) & 0x0000000000000FFFL); // time_hi
+		return hi;
+	}
+
+	/**
+	 * Returns the least significant bits of a version 1 UUID.
+	 * @param sequence Clock sequence (14 bits).
+	 * @param node Node (48 bits).
+	 */
+	static long lsb(final int sequence, final long node) {
+		long lo = 0x8000000000000000L; // variant
+		lo |= (((long) sequence) << 48); // clock_seq
+		lo |= node; // node
+		return lo;
+	}
+
+	/**
+	 * Builds a version 1 UUID.
+	 * @param time Time component (60 bits).
+	 * @param sequence Clock sequence (14 bits).
+	 * @param node Node (48 bits).
+	 */
+	static UUID build(final long time, final int sequence, final long node) {
+		return new UUID(msb(time), lsb(sequence, node));
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Base class for bulk UUID generators. Bulk generation is implemented in
+ * terms of {@link #fill(long[], long[])}, which by default calls
+ * {@link #get()} for each UUID. Subclasses should override it with a more
+ * efficient version.
+ * 
+ * @author Andres Rodriguez
+ */
+public abstract class AbstractUUIDGenerator implements BulkUUIDGenerator {
+	/** Constructor. */
+	protected AbstractUUIDGenerator() {
+	}
+
+	/**
+	 * Checks the arguments of {@link #fill(long[], long[])}.
+	 * @return The number of UUIDs to generate.
+	 */
+	protected static int checkFill(long[] msb, long[] lsb) {
+		checkNotNull(msb, "The most significant bits array must be provided");
+		checkNotNull(lsb, "The least significant bits array must be provided");
+		checkArgument(msb.length == lsb.length, "The arrays must have the same length");
+		return msb.length;
+	}
+
+	/**
+	 * Fills the arrays with UUIDs from the provided generator, in bulk if it
+	 * supports it.
+	 * @see BulkUUIDGenerator#fill(long[], long[])
+	 */
+	protected static void fill(UUIDGenerator generator, long[] msb, long[] lsb) {
+		if (generator instanceof BulkUUIDGenerator) {
+			((BulkUUIDGenerator) generator).fill(msb, lsb);
+			return;
+		}
+		final int n = checkFill(msb, lsb);
+		for (int i = 0; i < n; i++) {
+			final UUID u = generator.get();
+			msb[i] = u.getMostSignificantBits();
+			lsb[i] = u.getLeastSignificantBits();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.sf.derquinsej.uuid.BulkUUIDGenerator#get(int)
+	 */
+	public List<UUID> get(int n) {
+		checkArgument(n >= 0, "The number of UUIDs %s is negative", n);
+		final long[] msb = new long[n];
+		final long[] lsb = new long[n];
+		fill(msb, lsb);
+		final List<UUID> list = Lists.newArrayListWithCapacity(n);
+		for (int i = 0; i < n; i++) {
+			list.add(new UUID(msb[i], lsb[i]));
+		}
+		return list;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.sf.derquinsej.uuid.BulkUUIDGenerator#fill(long[], long[])
+	 */
+	public void fill(long[] msb, long[] lsb) {
+		final int n = checkFill(msb, lsb);
+		for (int i = 0; i < n; i++) {
+			final UUID u = get();
+			msb[i] = u.getMostSignificantBits();
+			lsb[i] = u.getLeastSignificantBits();
+		}
+	}
+}
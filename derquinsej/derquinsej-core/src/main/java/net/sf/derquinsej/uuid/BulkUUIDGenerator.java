@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Interface for UUID generators that can generate a number of UUIDs at once.
+ * Implementations MUST be thread-safe.
+ * 
+ * @author Andres Rodriguez
+ * @see AbstractUUIDGenerator
+ */
+public interface BulkUUIDGenerator extends UUIDGenerator {
+	/**
+	 * Generates a number of UUIDs at once.
+	 * @param n Number of UUIDs to generate.
+	 * @return The generated UUIDs.
+	 * @throws IllegalArgumentException if the argument is negative.
+	 */
+	List<UUID> get(int n);
+
+	/**
+	 * Generates a number of UUIDs at once without creating UUID objects. The
+	 * i-th UUID is stored in {@code msb[i]} and {@code lsb[i]}.
+	 * @param msb Array to fill with the most significant bits.
+	 * @param lsb Array to fill with the least significant bits.
+	 * @throws IllegalArgumentException if the arrays have different lengths.
+	 */
+	void fill(long[] msb, long[] lsb);
+}
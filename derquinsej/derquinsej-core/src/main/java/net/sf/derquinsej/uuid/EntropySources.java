@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Entropy sources factory.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class EntropySources {
+	/** Default buffer size in bytes. */
+	private static final int BUFFER = 4096;
+	/** Default secure source. */
+	private static final EntropySource SECURE = new Secure(BUFFER);
+	/** Default fast source. */
+	private static final EntropySource FAST = new Fast();
+
+	/** Not instantiable. */
+	private EntropySources() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Returns the default cryptographically strong source. Each thread has its
+	 * own {@link SecureRandom} and buffers its output, requesting it in 4 KB
+	 * blocks, so threads never contend and the per-call overhead of the secure
+	 * generator is amortized.
+	 */
+	public static EntropySource secure() {
+		return SECURE;
+	}
+
+	/**
+	 * Returns a new cryptographically strong source.
+	 * @param bufferSize Size of the per-thread buffer in bytes.
+	 * @see #secure()
+	 */
+	public static EntropySource secure(int bufferSize) {
+		checkArgument(bufferSize >= 8 && bufferSize % 8 == 0, "Invalid buffer size %s", bufferSize);
+		return new Secure(bufferSize);
+	}
+
+	/**
+	 * Returns a fast, non cryptographically strong source: a per-thread
+	 * xorshift64* generator seeded from {@link SecureRandom}. The generated
+	 * values are statistically random but predictable from previous output,
+	 * so it must only be used where UUIDs need not be unguessable.
+	 */
+	public static EntropySource fast() {
+		return FAST;
+	}
+
+	/**
+	 * Returns a source backed by the provided random number generator.
+	 */
+	public static EntropySource of(final Random random) {
+		checkNotNull(random, "The random number generator must be provided");
+		return new EntropySource() {
+			public long nextLong() {
+				return random.nextLong();
+			}
+		};
+	}
+
+	/** Per-thread buffered secure source. */
+	private static final class Secure extends ThreadLocal<Secure.Buffer> implements EntropySource {
+		/** Buffer size. */
+		private final int size;
+
+		Secure(int size) {
+			this.size = size;
+		}
+
+		@Override
+		protected Buffer initialValue() {
+			return new Buffer(size);
+		}
+
+		public long nextLong() {
+			final Buffer b = get();
+			if ( !b.bytes.hasRemaining() ) {
+				b.random.nextBytes(b.bytes.array());
+				b.bytes.clear();
+			}
+			return b.bytes.getLong();
+		}
+
+		/** Thread buffer. */
+		static final class Buffer {
+			/** Generator, only used by the owner thread. */
+			final SecureRandom random = new SecureRandom();
+			/** Buffered bytes. */
+			final ByteBuffer bytes;
+
+			Buffer(int size) {
+				bytes = ByteBuffer.allocate(size);
+				bytes.position(size);
+			}
+		}
+	}
+
+	/** Per-thread xorshift64* source. */
+	private static final class Fast extends ThreadLocal<long[]> implements EntropySource {
+		/** Seed generator. */
+		private final SecureRandom seeds = new SecureRandom();
+
+		@Override
+		protected long[] initialValue() {
+			long seed;
+			synchronized (seeds) {
+				do {
+					seed = seeds.nextLong();
+				} while (seed == 0L);
+			}
+			return new long[] { seed };
+		}
+
+		public long nextLong() {
+			final long[] state = get();
+			long x = state[0];
+			x ^= x >>> 12;
+			x ^= x << 25;
+			x ^= x >>> 27;
+			state[0] = x;
+			return x * 0x2545F4914F6CDD1DL;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free time based UUID generator. It produces the same sequence of
+ * times and clock sequences as {@link TimeBasedUUIDGenerator}, but the clock
+ * state (last time, sub-time and clock sequence) is an immutable object
+ * replaced with a compare-and-set, so concurrent threads never block each
+ * other. The random part of the node is taken from an {@link EntropySource},
+ * by default {@link EntropySources#secure()}, which is per-thread as well.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class LockFreeTimeBasedUUIDGenerator extends AbstractTimeBasedUUIDGenerator {
+	/** Clock state. */
+	private final AtomicReference<Clock> clock;
+
+	public LockFreeTimeBasedUUIDGenerator(UUIDTimer timer, long node, int bits, EntropySource entropy) {
+		super(timer, node, bits, entropy);
+		this.clock = new AtomicReference<Clock>(new Clock(0L, 0L, initialSequence()));
+	}
+
+	public LockFreeTimeBasedUUIDGenerator(UUIDTimer timer, long node, int bits) {
+		this(timer, node, bits, null);
+	}
+
+	public LockFreeTimeBasedUUIDGenerator(UUIDTimer timer) {
+		this(timer, 0L, 0);
+	}
+
+	public LockFreeTimeBasedUUIDGenerator(long node, int bits) {
+		this(null, node, bits);
+	}
+
+	public LockFreeTimeBasedUUIDGenerator() {
+		this(null, 0L, 0);
+	}
+
+	public UUID get() {
+		final long current = timer.getCurrentTime();
+		Clock c;
+		Clock next;
+		do {
+			c = clock.get();
+			next = c.next(current, resolution);
+		} while (!clock.compareAndSet(c, next));
+		return build(next.time, next.sequence, getNode());
+	}
+
+	/**
+	 * Generates a number of UUIDs, reserving all the times with a single
+	 * compare-and-set.
+	 */
+	@Override
+	public void fill(long[] msb, long[] lsb) {
+		final int n = checkFill(msb, lsb);
+		if ( n == 0 ) {
+			return;
+		}
+		final long current = timer.getCurrentTime();
+		Clock c;
+		Clock next;
+		do {
+			c = clock.get();
+			long time = c.time;
+			long subtime = c.subtime;
+			int sequence = c.sequence;
+			for (int i = 0; i < n; i++) {
+				if ( current > time ) {
+					time = current;
+					subtime = 0L;
+				} else if ( ++subtime < resolution ) {
+					time++;
+				} else {
+					time = current;
+					subtime = 0L;
+					sequence = (sequence + 1) & MAX_SEQ;
+				}
+				msb[i] = time;
+				lsb[i] = sequence;
+			}
+			next = new Clock(time, subtime, sequence);
+		} while (!clock.compareAndSet(c, next));
+		complete(msb, lsb);
+	}
+
+	/** Immutable clock state. */
+	private static final class Clock {
+		/** Last used time. */
+		final long time;
+		/** Last used sub-time. */
+		final long subtime;
+		/** Sequence number. */
+		final int sequence;
+
+		Clock(long time, long subtime, int sequence) {
+			this.time = time;
+			this.subtime = subtime;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Computes the next state.
+		 * @param current Current time.
+		 * @param resolution Timer resolution.
+		 */
+		Clock next(long current, long resolution) {
+			if ( current > time ) {
+				return new Clock(current, 0L, sequence);
+			}
+			final long s = subtime + 1;
+			if ( s < resolution ) {
+				return new Clock(time + 1, s, sequence);
+			}
+			return new Clock(current, 0L, (sequence + 1) & MAX_SEQ);
+		}
+	}
+}
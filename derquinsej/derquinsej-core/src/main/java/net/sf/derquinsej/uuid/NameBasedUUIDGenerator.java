@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Name based UUID generator. Version 3 (MD5) and version 5 (SHA-1) UUIDs are
+ * computed from a namespace UUID and a name, as specified in RFC 4122. Each
+ * thread keeps its own message digest, output and encoding buffers, so
+ * hashing a name does not allocate any digest or intermediate array.
+ * Character names are encoded as UTF-8, with unpaired surrogates replaced by
+ * '?', as {@link String#getBytes(String)} does. This class is thread-safe.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class NameBasedUUIDGenerator {
+	/** Namespace for fully qualified domain names. */
+	public static final UUID NAMESPACE_DNS = UUID.fromString("6ba7b810-9dad-11d1-80b4-00c04fd430c8");
+	/** Namespace for URLs. */
+	public static final UUID NAMESPACE_URL = UUID.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8");
+	/** Namespace for ISO OIDs. */
+	public static final UUID NAMESPACE_OID = UUID.fromString("6ba7b812-9dad-11d1-80b4-00c04fd430c8");
+	/** Namespace for X.500 DNs. */
+	public static final UUID NAMESPACE_X500 = UUID.fromString("6ba7b814-9dad-11d1-80b4-00c04fd430c8");
+
+	/** Size of the character encoding buffer. */
+	private static final int ENCODING_BUFFER = 1024;
+
+	/**
+	 * Creates a version 3 (MD5) generator.
+	 * @param namespace Namespace. If {@code null} only the name is hashed, as
+	 *            {@link UUID#nameUUIDFromBytes(byte[])} does.
+	 * @return The created generator.
+	 */
+	public static NameBasedUUIDGenerator md5(UUID namespace) {
+		return new NameBasedUUIDGenerator(3, "MD5", namespace);
+	}
+
+	/**
+	 * Creates a version 5 (SHA-1) generator.
+	 * @param namespace Namespace. If {@code null} only the name is hashed.
+	 * @return The created generator.
+	 */
+	public static NameBasedUUIDGenerator sha1(UUID namespace) {
+		return new NameBasedUUIDGenerator(5, "SHA-1", namespace);
+	}
+
+	/** UUID version. */
+	private final int version;
+	/** Digest algorithm. */
+	private final String algorithm;
+	/** Namespace, or {@code null}. */
+	private final UUID namespace;
+	/** Binary form of the namespace, empty if there is none. */
+	private final byte[] prefix;
+	/** Per-thread state. */
+	private final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State(digest());
+		}
+	};
+
+	private NameBasedUUIDGenerator(int version, String algorithm, UUID namespace) {
+		this.version = version;
+		this.algorithm = algorithm;
+		this.namespace = namespace;
+		this.prefix = namespace == null ? new byte[0] : UUIDs.toBytes(namespace);
+		// Fail early if the algorithm is not available.
+		digest();
+	}
+
+	private MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(algorithm + " not available", e);
+		}
+	}
+
+	/**
+	 * Returns the version of the generated UUIDs.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the namespace, {@code null} if there is none.
+	 */
+	public UUID getNamespace() {
+		return namespace;
+	}
+
+	/** Starts a new hash, returning the thread state. */
+	private State begin() {
+		final State s = state.get();
+		// In case a previous hash was interrupted by an exception.
+		s.digest.reset();
+		s.digest.update(prefix);
+		return s;
+	}
+
+	/**
+	 * Returns the UUID for a name.
+	 * @param name Name.
+	 * @return The name based UUID.
+	 */
+	public UUID get(byte[] name) {
+		return get(name, 0, name.length);
+	}
+
+	/**
+	 * Returns the UUID for a name.
+	 * @param name Array containing the name.
+	 * @param offset Position of the first byte of the name.
+	 * @param length Length of the name.
+	 * @return The name based UUID.
+	 */
+	public UUID get(byte[] name, int offset, int length) {
+		checkPositionIndexes(offset, offset + length, name.length);
+		final State s = begin();
+		s.digest.update(name, offset, length);
+		return s.finish();
+	}
+
+	/**
+	 * Returns the UUID for the remaining bytes of a buffer, advancing its
+	 * position to its limit.
+	 * @param name Buffer containing the name.
+	 * @return The name based UUID.
+	 */
+	public UUID get(ByteBuffer name) {
+		checkNotNull(name, "The name must be provided");
+		final State s = begin();
+		s.digest.update(name);
+		return s.finish();
+	}
+
+	/**
+	 * Returns the UUID for the UTF-8 encoding of a name.
+	 * @param name Name.
+	 * @return The name based UUID.
+	 */
+	public UUID get(CharSequence name) {
+		checkNotNull(name, "The name must be provided");
+		final State s = begin();
+		final byte[] b = s.encoded;
+		final int n = name.length();
+		int p = 0;
+		for (int i = 0; i < n; i++) {
+			if ( p > b.length - 4 ) {
+				s.digest.update(b, 0, p);
+				p = 0;
+			}
+			final char c = name.charAt(i);
+			if ( c < 0x80 ) {
+				b[p++] = (byte) c;
+			} else if ( c < 0x800 ) {
+				b[p++] = (byte) (0xC0 | (c >> 6));
+				b[p++] = (byte) (0x80 | (c & 0x3F));
+			} else if ( Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(name.charAt(i + 1)) ) {
+				final int cp = Character.toCodePoint(c, name.charAt(++i));
+				b[p++] = (byte) (0xF0 | (cp >> 18));
+				b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				b[p++] = (byte) (0x80 | (cp & 0x3F));
+			} else if ( Character.isHighSurrogate(c) || Character.isLowSurrogate(c) ) {
+				b[p++] = (byte) '?';
+			} else {
+				b[p++] = (byte) (0xE0 | (c >> 12));
+				b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[p++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		s.digest.update(b, 0, p);
+		return s.finish();
+	}
+
+	/** Per-thread state. */
+	private final class State {
+		/** Message digest. */
+		final MessageDigest digest;
+		/** Digest output. */
+		final byte[] output;
+		/** Character encoding buffer. */
+		final byte[] encoded = new byte[ENCODING_BUFFER];
+
+		State(MessageDigest digest) {
+			this.digest = digest;
+			this.output = new byte[digest.getDigestLength()];
+		}
+
+		/** Completes the hash, resetting the digest, and builds the UUID. */
+		UUID finish() {
+			try {
+				digest.digest(output, 0, output.length);
+			} catch (DigestException e) {
+				throw new IllegalStateException(e);
+			}
+			long msb = 0L;
+			long lsb = 0L;
+			for (int i = 0; i < 8; i++) {
+				msb = (msb << 8) | (output[i] & 0xFFL);
+				lsb = (lsb << 8) | (output[i + 8] & 0xFFL);
+			}
+			msb = (msb & 0xFFFFFFFFFFFF0FFFL) | ((long) version << 12); // version
+			lsb = (lsb & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // variant
+			return new UUID(msb, lsb);
+		}
+	}
+}
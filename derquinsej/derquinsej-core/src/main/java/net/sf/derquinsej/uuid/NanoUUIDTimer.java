@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * High resolution UUID timer. The wall clock is read once, at a wall clock
+ * tick, and time is then advanced with System.nanoTime, providing the full
+ * 100-nanosecond UUID resolution. The constructor waits for two ticks to
+ * measure the wall clock granularity, so it may take up to twice that
+ * granularity (10-15 ms on some systems). Periodically the extrapolated time
+ * is compared with the wall clock and, if they differ by more than the
+ * granularity plus 1 ms, the timer is re-anchored by the single thread that
+ * wins the check, while the rest keep using the previous anchor. Re-anchoring
+ * does not wait for a tick, so the new anchor may lag the real time by up to
+ * the granularity, which the tolerance absorbs. Re-anchoring may move the
+ * time backwards, which time based generators handle as any other clock
+ * adjustment.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class NanoUUIDTimer implements UUIDTimer {
+	/** Multiplier from system time resolution to UUID time resolution. */
+	private static final long MULTIPLIER = 10000L;
+	/** Offset between system time and UUID time zeroes. */
+	private static final long OFFSET = 0x01b21dd213814000L;
+	
+	/** Default instance, checking the drift every second. */
+	public static final NanoUUIDTimer INSTANCE = new NanoUUIDTimer(1L, TimeUnit.SECONDS);
+	
+	/** Drift check period (ns). */
+	private final long period;
+	/** Tolerated difference with the wall clock (UUID time units). */
+	private final long tolerance;
+	/** Current anchor. */
+	private volatile Anchor anchor;
+	/** Time of the next drift check (nanoTime). */
+	private final AtomicLong nextCheck;
+	/** Number of re-anchors. */
+	private final AtomicLong reanchors = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param period Drift check period.
+	 * @param unit Time unit of the period.
+	 */
+	public NanoUUIDTimer(long period, TimeUnit unit) {
+		checkArgument(period > 0, "The period %s is not > 0", period);
+		this.period = unit.toNanos(period);
+		final Anchor first = Anchor.tick(System.currentTimeMillis());
+		this.anchor = Anchor.tick((first.wall - OFFSET) / MULTIPLIER);
+		// Wall clock granularity plus the usual 1 ms margin.
+		this.tolerance = anchor.wall - first.wall + MULTIPLIER;
+		this.nextCheck = new AtomicLong(anchor.nano + this.period);
+	}
+
+	public long getCurrentTime() {
+		final long now = System.nanoTime();
+		final long check = nextCheck.get();
+		if ( now - check >= 0 && nextCheck.compareAndSet(check, now + period) ) {
+			check();
+		}
+		return anchor.time(now);
+	}
+	
+	/**
+	 * Returns the number of UUID time units generators may borrow ahead of
+	 * the timer before changing the clock sequence: 1 ms, as with
+	 * {@link SystemUUIDTimer}. It is not 1 as nanoTime granularity is often
+	 * coarser than 100 ns.
+	 */
+	public long getResolution() {
+		return MULTIPLIER;
+	}
+
+	/**
+	 * Returns the number of times the timer has been re-anchored because of
+	 * drift.
+	 */
+	public long getReanchors() {
+		return reanchors.get();
+	}
+
+	/**
+	 * Compares the extrapolated time with the wall clock. Called by a single
+	 * thread at a time.
+	 */
+	private void check() {
+		final long now = System.nanoTime();
+		final long wall = System.currentTimeMillis() * MULTIPLIER + OFFSET;
+		// The wall clock value and a lagging anchor are both within the
+		// granularity of the real time.
+		final long drift = anchor.time(now) - wall;
+		if ( drift > tolerance || drift < -tolerance ) {
+			anchor = Anchor.create();
+			reanchors.incrementAndGet();
+		}
+	}
+
+	/** Pairing of a wall clock time and a nanoTime. */
+	private static final class Anchor {
+		/** Wall clock time (UUID time units). */
+		final long wall;
+		/** nanoTime at the wall clock time. */
+		final long nano;
+
+		Anchor(long wall, long nano) {
+			this.wall = wall;
+			this.nano = nano;
+		}
+
+		/**
+		 * Creates a new anchor without waiting for a wall clock tick. The wall
+		 * clock is read after nanoTime, so the anchor lags the real time by
+		 * less than the wall clock granularity.
+		 */
+		static Anchor create() {
+			final long nano = System.nanoTime();
+			return new Anchor(System.currentTimeMillis() * MULTIPLIER + OFFSET, nano);
+		}
+
+		/**
+		 * Creates a new anchor at the next wall clock tick.
+		 * @param ms Wall clock value to wait to change (ms).
+		 */
+		static Anchor tick(long ms) {
+			long current;
+			long nano;
+			do {
+				nano = System.nanoTime();
+				current = System.currentTimeMillis();
+			} while ( current == ms );
+			return new Anchor(current * MULTIPLIER + OFFSET, nano);
+		}
+
+		/** Returns the extrapolated time. */
+		long time(long now) {
+			return wall + (now - nano) / 100L;
+		}
+	}
+}
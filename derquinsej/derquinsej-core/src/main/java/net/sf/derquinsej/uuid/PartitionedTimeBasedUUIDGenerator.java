@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node-partitioned time based UUID generator. The node field is split in
+ * three parts: the lower {@code bits} bits are fixed, the next
+ * {@code partitionBits} bits hold a partition index and the rest are random.
+ * Each partition has its own clock state, and each thread is assigned a
+ * partition (round-robin) the first time it generates a UUID, keeping it for
+ * its whole life. As UUIDs from different partitions differ in the node field,
+ * they are unique regardless of their time, so partitions need no coordination
+ * among them. Threads sharing a partition are serialized by its clock state,
+ * which only affects contention: uniqueness never depends on how threads are
+ * assigned. Assignments are never reclaimed, so as threads die and new ones
+ * start, live threads may share a partition even if there are fewer of them
+ * than partitions; a bounded pool of long-lived threads spreads best.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class PartitionedTimeBasedUUIDGenerator extends AbstractTimeBasedUUIDGenerator {
+	/** Highest node bit available for fixed and partition bits (the multicast bit is above). */
+	private static final int MAX_PARTITIONED = 44;
+
+	/** Partitions. */
+	private final Partition[] partitions;
+	/** Partition bits offset. */
+	private final int offset;
+	/** Next partition to assign. */
+	private final AtomicInteger next = new AtomicInteger();
+	/** Partition assigned to each thread. */
+	private final ThreadLocal<Partition> assigned = new ThreadLocal<Partition>() {
+		@Override
+		protected Partition initialValue() {
+			return partitions[next.getAndIncrement() & (partitions.length - 1)];
+		}
+	};
+	
+	/**
+	 * Constructor.
+	 * @param timer Timer to use (system timer if {@code null}).
+	 * @param node Node number, only the lower {@code bits} bits are used.
+	 * @param bits Number of fixed node bits.
+	 * @param partitionBits Number of partition bits, the generator has
+	 *            2^partitionBits partitions.
+	 * @param entropy Source of the random part of the node (default source if
+	 *            {@code null}).
+	 * @throws IllegalArgumentException if the number of partition bits is not
+	 *             in [1, 16] or the total number of fixed and partition bits is
+	 *             over 44.
+	 */
+	public PartitionedTimeBasedUUIDGenerator(UUIDTimer timer, long node, int bits, int partitionBits,
+			EntropySource entropy) {
+		// Partition bits are zero in the fixed part of the node.
+		super(timer, node & ~(-1L << Math.max(0, bits)), Math.max(0, bits) + partitionBits, entropy);
+		checkArgument(partitionBits > 0 && partitionBits <= 16, "Invalid number of partition bits %s", partitionBits);
+		checkArgument(Math.max(0, bits) + partitionBits <= MAX_PARTITIONED, "Too many node bits");
+		this.offset = Math.max(0, bits);
+		this.partitions = new Partition[1 << partitionBits];
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i] = new Partition(((long) i) << offset, initialSequence());
+		}
+	}
+
+	public PartitionedTimeBasedUUIDGenerator(UUIDTimer timer, long node, int bits, int partitionBits) {
+		this(timer, node, bits, partitionBits, null);
+	}
+
+	public PartitionedTimeBasedUUIDGenerator(long node, int bits, int partitionBits) {
+		this(null, node, bits, partitionBits);
+	}
+
+	public PartitionedTimeBasedUUIDGenerator(int partitionBits) {
+		this(null, 0L, 0, partitionBits);
+	}
+
+	/**
+	 * Returns the number of partitions.
+	 */
+	public int getPartitions() {
+		return partitions.length;
+	}
+	
+	public UUID get() {
+		final long current = timer.getCurrentTime();
+		final Partition p = assigned.get();
+		final long time;
+		final int seq;
+		synchronized (p) {
+			time = p.getTime(current);
+			seq = p.sequence;
+		}
+		return build(time, seq, getNode() | p.bits);
+	}
+	
+	/**
+	 * Generates a number of UUIDs, reserving all the times in a single
+	 * critical section of the current thread partition.
+	 */
+	@Override
+	public void fill(long[] msb, long[] lsb) {
+		final int n = checkFill(msb, lsb);
+		final long current = timer.getCurrentTime();
+		final Partition p = assigned.get();
+		synchronized (p) {
+			for (int i = 0; i < n; i++) {
+				msb[i] = p.getTime(current);
+				lsb[i] = p.sequence;
+			}
+		}
+		complete(msb, lsb);
+		for (int i = 0; i < n; i++) {
+			lsb[i] |= p.bits;
+		}
+	}
+
+	/** Partition clock state. */
+	private final class Partition {
+		/** Partition node bits. */
+		final long bits;
+		/** Sequence number. */
+		int sequence;
+		/** Last used time. */
+		long lastTime = 0L;
+		/** Last used sub-time. */
+		long lastSubtime = 0L;
+
+		Partition(long bits, int sequence) {
+			this.bits = bits;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Builds the time part. Must be called holding the partition monitor.
+		 * @param current Current time.
+		 * @return The time component.
+		 */
+		long getTime(long current) {
+			if ( current > lastTime ) {
+				lastTime = current;
+				lastSubtime = 0L;
+			} else {
+				lastSubtime++;
+				if ( lastSubtime < resolution ) {
+					lastTime++;
+				} else {
+					lastTime = current;
+					lastSubtime = 0L;
+					sequence = ((sequence+1) & MAX_SEQ);
+				}
+			}
+			return lastTime;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import net.sf.derquinsej.concurrent.ActiveObjectSupport;
+import net.sf.derquinsej.stats.Counter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * UUID generator serving pre-generated UUIDs. UUIDs are generated in blocks
+ * with the bulk method of a delegate generator by a background thread, which
+ * keeps a bounded number of blocks ready. Callers take UUIDs from the current
+ * block with an atomic increment and, when it is exhausted, the next ready
+ * block replaces it. If no block is ready the UUID is generated inline by the
+ * delegate, without taking any lock, and the background thread is woken once
+ * per exhausted block. Blocks are never reused, so every pre-generated UUID is served at
+ * most once.
+ * <p>
+ * The generator is an active object: the background thread runs only while
+ * it is ON. Ready UUIDs are served in any state. Note that time based UUIDs
+ * carry the time at which they were pre-generated. This class is thread-safe.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class PooledUUIDGenerator extends AbstractUUIDGenerator {
+	/** Maximum time the refill thread waits before checking the pool (ns). */
+	private static final long CHECK = TimeUnit.MILLISECONDS.toNanos(100L);
+
+	/** Delegate generator. */
+	private final UUIDGenerator delegate;
+	/** Block size. */
+	private final int blockSize;
+	/** Ready blocks. */
+	private final BlockingQueue<Block> ready;
+	/** Refill thread factory. */
+	private final ThreadFactory threadFactory;
+	/** Lifecycle support. */
+	private final ActiveObjectSupport support;
+	/** Block being served. */
+	private volatile Block current = new Block(0);
+	/** Refill thread. */
+	private volatile Thread refiller;
+	/** Whether the refill thread must keep running. */
+	private volatile boolean running;
+	/** UUIDs served from the pool. */
+	private final Counter hits = Counter.create();
+	/** UUIDs generated inline. */
+	private final Counter misses = Counter.create();
+
+	/**
+	 * Constructor. The generator is initially OFF.
+	 * @param delegate Generator used to generate the UUIDs.
+	 * @param blockSize Number of UUIDs generated at once.
+	 * @param blocks Number of blocks kept ready.
+	 * @param threadFactory Factory for the refill thread.
+	 */
+	public PooledUUIDGenerator(UUIDGenerator delegate, int blockSize, int blocks, ThreadFactory threadFactory) {
+		checkArgument(blockSize > 0, "The block size %s is not > 0", blockSize);
+		checkArgument(blocks > 0, "The number of blocks %s is not > 0", blocks);
+		this.delegate = checkNotNull(delegate, "The delegate generator must be provided");
+		this.threadFactory = checkNotNull(threadFactory, "The thread factory must be provided");
+		this.blockSize = blockSize;
+		this.ready = new ArrayBlockingQueue<Block>(blocks);
+		this.support = new ActiveObjectSupport(new Runnable() {
+			public void run() {
+				onStart();
+			}
+		}, null, new Runnable() {
+			public void run() {
+				onStop();
+			}
+		}, null);
+	}
+
+	/**
+	 * Constructor with a daemon refill thread. The generator is initially OFF.
+	 * @param delegate Generator used to generate the UUIDs.
+	 * @param blockSize Number of UUIDs generated at once.
+	 * @param blocks Number of blocks kept ready.
+	 */
+	public PooledUUIDGenerator(UUIDGenerator delegate, int blockSize, int blocks) {
+		this(delegate, blockSize, blocks, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("uuid-pool-%d")
+				.build());
+	}
+
+	/**
+	 * Returns the lifecycle support object.
+	 */
+	public ActiveObjectSupport getSupport() {
+		return support;
+	}
+
+	/**
+	 * Starts the generator.
+	 */
+	public void start() {
+		support.start();
+	}
+
+	/**
+	 * Stops the generator, waiting for the refill thread to finish.
+	 */
+	public void stop() {
+		support.stop();
+	}
+
+	/**
+	 * Returns a pre-generated UUID if available, or generates one inline.
+	 */
+	public UUID get() {
+		while (true) {
+			final Block b = current;
+			// Checked first so that the index does not grow while exhausted.
+			if ( b.next.get() < b.msb.length ) {
+				final int i = b.next.getAndIncrement();
+				if ( i < b.msb.length ) {
+					hits.add();
+					return new UUID(b.msb[i], b.lsb[i]);
+				}
+			}
+			if ( !advance(b) ) {
+				misses.add();
+				return delegate.get();
+			}
+		}
+	}
+
+	/**
+	 * Replaces an exhausted block with the next ready one.
+	 * @return Whether the current block has been replaced.
+	 */
+	private boolean advance(Block exhausted) {
+		if ( current != exhausted ) {
+			return true;
+		}
+		if ( exhausted.signalled.compareAndSet(false, true) ) {
+			LockSupport.unpark(refiller);
+		}
+		// Generate inline without contending for the lock if nothing is ready.
+		if ( ready.isEmpty() ) {
+			return false;
+		}
+		synchronized (this) {
+			if ( current != exhausted ) {
+				return true;
+			}
+			final Block b = ready.poll();
+			if ( b == null ) {
+				return false;
+			}
+			current = b;
+			return true;
+		}
+	}
+
+	/**
+	 * Generates a number of UUIDs directly with the delegate, as bulk
+	 * generation is already amortized.
+	 */
+	@Override
+	public void fill(long[] msb, long[] lsb) {
+		checkFill(msb, lsb);
+		fill(delegate, msb, lsb);
+	}
+
+	private void onStart() {
+		running = true;
+		final Thread thread = threadFactory.newThread(new Runnable() {
+			public void run() {
+				refill();
+			}
+		});
+		refiller = thread;
+		thread.start();
+	}
+
+	private void onStop() {
+		running = false;
+		final Thread thread = refiller;
+		LockSupport.unpark(thread);
+		Uninterruptibles.joinUninterruptibly(thread);
+		refiller = null;
+	}
+
+	/** Refill loop. */
+	private void refill() {
+		while ( running ) {
+			try {
+				while ( running && ready.remainingCapacity() > 0 ) {
+					final Block b = new Block(blockSize);
+					fill(delegate, b.msb, b.lsb);
+					ready.offer(b);
+				}
+			} catch (RuntimeException e) {
+				// Callers fall back to inline generation, retry later.
+			}
+			LockSupport.parkNanos(this, CHECK);
+		}
+	}
+
+	/**
+	 * Returns the number of UUIDs served from the pool.
+	 */
+	public long getHits() {
+		return hits.getCount();
+	}
+
+	/**
+	 * Returns the number of UUIDs generated inline because the pool was empty.
+	 */
+	public long getMisses() {
+		return misses.getCount();
+	}
+
+	/**
+	 * Returns the approximate number of pre-generated UUIDs available.
+	 */
+	public int getAvailable() {
+		final Block b = current;
+		return ready.size() * blockSize + Math.max(0, b.msb.length - b.next.get());
+	}
+
+	@Override
+	public String toString() {
+		return String.format((Locale) null, "PooledUUIDGenerator[%s, available=%d, hits=%d, misses=%d]", support
+				.getStatus(), getAvailable(), getHits(), getMisses());
+	}
+
+	/** Block of pre-generated UUIDs. */
+	private static final class Block {
+		/** Most significant bits. */
+		final long[] msb;
+		/** Least significant bits. */
+		final long[] lsb;
+		/** Index of the next UUID to serve. */
+		final AtomicInteger next = new AtomicInteger();
+		/** Whether the refill thread has been woken because of this block. */
+		final AtomicBoolean signalled = new AtomicBoolean();
+
+		Block(int size) {
+			this.msb = new long[size];
+			this.lsb = new long[size];
+		}
+	}
+}
@@ -17,18 +17,56 @@ package net.sf.derquinsej.uuid;
 
 import java.util.UUID;
 
+import com.google.common.base.Preconditions;
+
 
 /**
- * Simple random UUID generator.
+ * Simple random (version 4) UUID generator. The random bits are taken from an
+ * {@link EntropySource}, by default {@link EntropySources#secure()}, which
+ * keeps a buffered generator per thread so that threads do not contend on
+ * the global generator used by {@link UUID#randomUUID()}.
  * 
  * @author Andres Rodriguez
  */
-public final class RandomUUIDGenerator implements UUIDGenerator {
+public final class RandomUUIDGenerator extends AbstractUUIDGenerator {
+	/** Entropy source. */
+	private final EntropySource entropy;
+
+	public RandomUUIDGenerator(EntropySource entropy) {
+		this.entropy = Preconditions.checkNotNull(entropy, "The entropy source must be provided");
+	}
+
+	public RandomUUIDGenerator() {
+		this(EntropySources.secure());
+	}
+
 	/**
 	 * Returns a random UUID.
 	 * @return A random UUID.
 	 */
 	public UUID get() {
-		return UUID.randomUUID();
+		return new UUID(msb(entropy.nextLong()), lsb(entropy.nextLong()));
+	}
+
+	/**
+	 * Generates a number of random UUIDs.
+	 */
+	@Override
+	public void fill(long[] msb, long[] lsb) {
+		final int n = checkFill(msb, lsb);
+		for (int i = 0; i < n; i++) {
+			msb[i] = msb(entropy.nextLong());
+			lsb[i] = lsb(entropy.nextLong());
+		}
+	}
+
+	/** Sets the version bits. */
+	private static long msb(long bits) {
+		return (bits & 0xFFFFFFFFFFFF0FFFL) | 0x0000000000004000L; // version
+	}
+
+	/** Sets the variant bits. */
+	private static long lsb(long bits) {
+		return (bits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // variant
 	}
 }
@@ -27,7 +27,10 @@ import com.google.common.base.Preconditions;
  * 
  * @author Andres Rodriguez
  */
-public class SafeUUIDGenerator implements UUIDGenerator {
+public class SafeUUIDGenerator extends AbstractUUIDGenerator {
+	/** Fallback generator. */
+	private static final RandomUUIDGenerator FALLBACK = new RandomUUIDGenerator();
+
 	/** Generator to use. */
 	private final UUIDGenerator generator;
 	
@@ -40,7 +43,21 @@ public class SafeUUIDGenerator implements UUIDGenerator {
 		try {
 			return generator.get();
 		} catch(Exception e) {
-			return UUID.randomUUID();
+			return FALLBACK.get();
+		}
+	}
+
+	/**
+	 * Generates a number of UUIDs with the provided generator. In case of any
+	 * exception, random UUIDs are generated.
+	 */
+	@Override
+	public void fill(long[] msb, long[] lsb) {
+		checkFill(msb, lsb);
+		try {
+			fill(generator, msb, lsb);
+		} catch(Exception e) {
+			FALLBACK.fill(msb, lsb);
 		}
 	}
 }
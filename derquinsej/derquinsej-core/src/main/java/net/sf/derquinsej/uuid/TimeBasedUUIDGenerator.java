@@ -15,67 +15,29 @@
  */
 package net.sf.derquinsej.uuid;
 
-import java.security.SecureRandom;
 import java.util.UUID;
 
 /**
  * Time based UUID generator.
  * 
  * @author Andres Rodriguez
+ * @see LockFreeTimeBasedUUIDGenerator
  */
-public final class TimeBasedUUIDGenerator implements UUIDGenerator {
-	/** Max sequence number. */
-	private static final int MAX_SEQ = 0x3FFF;
-	/** Mask for the significant bits. */
-	private static final long NODE_MASK = 0x0000FFFFFFFFFFFFL;
-	/** Multicast bit. */
-	private static final long MULTICAST = 0x0000100000000000L;
-	/** Minimum number of bits of the node part. */
-	private static final int MIN_NODE = 0;
-	/** Maximum number of bits of the node part. */
-	private static final int MAX_NODE = 47;
-
+public final class TimeBasedUUIDGenerator extends AbstractTimeBasedUUIDGenerator {
 	/** Sequence number. */
 	private int sequence;
-	/** UUID timer. */
-	private final UUIDTimer timer;
-	/** Timer resolution. */
-	private final long resolution;
 	/** Last used time. */
 	private long lastTime = 0L;
 	/** Last used sub-time. */
 	private long lastSubtime = 0L;
-	/** Node number. */
-	private final long node;
-	/** Mask for the random part of the node. */
-	private final long randomMask;
-	/** Random number generator. */
-	private final SecureRandom random;
+	
+	public TimeBasedUUIDGenerator(UUIDTimer timer, long node, int bits, EntropySource entropy) {
+		super(timer, node, bits, entropy);
+		this.sequence = initialSequence();
+	}
 	
 	public TimeBasedUUIDGenerator(UUIDTimer timer, long node, int bits) {
-		if ( timer == null ) {
-			timer = SystemUUIDTimer.INSTANCE;
-		}
-		final SecureRandom sr = new SecureRandom();
-		this.sequence = sr.nextInt(MAX_SEQ);
-		this.timer = timer;
-		this.resolution = timer.getResolution();
-		bits = Math.max(MIN_NODE, bits);
-		bits = Math.min(MAX_NODE, bits);
-		if ( bits == MAX_NODE ) {
-			this.random = null;
-			this.node = ((node | MULTICAST) & NODE_MASK);
-			this.randomMask = 0L;
-		} else {
-			this.random = sr;
-			if ( bits == 0 ) {
-				this.node = MULTICAST;
-				this.randomMask = NODE_MASK;
-			} else {
-				this.node = ((NODE_MASK >>> (48-bits)) & node) | MULTICAST;
-				this.randomMask = (NODE_MASK << bits) & NODE_MASK;
-			}
-		}
+		this(timer, node, bits, null);
 	}
 	
 	public TimeBasedUUIDGenerator(UUIDTimer timer) {
@@ -91,29 +53,34 @@ public final class TimeBasedUUIDGenerator implements UUIDGenerator {
 	}
 	
 	
-	private UUID build(final long time, final long node) {
-		// Most significant long
-		long hi = 0x0000000000001000L; // version
-		hi |= (time << 32); // time_low
-		hi |= ((time >>> 16) & 0x00000000FFFF0000L); // time_mid
-		hi |= ((time >>> 48) & 0x0000000000000FFFL); // time_hi
-		// Least significant long
-		long lo = 0x8000000000000000L; // variant
-		lo |= (((long) sequence) << 48); // clock_seq
-		lo |= node; // node
-		return new UUID(hi, lo);
+	public UUID get() {
+		final long current = timer.getCurrentTime();
+		final long randomNode = getNode();
+		final long time;
+		final int seq;
+		// Read the sequence in the same critical section as the time.
+		synchronized (this) {
+			time = getTime(current);
+			seq = sequence;
+		}
+		return build(time, seq, randomNode);
 	}
-
 	
-	public UUID get() {
-		final long time = getTime(timer.getCurrentTime());
-		final long randomNode;
-		if ( random == null ) {
-			randomNode = 0L;
-		} else {
-			randomNode = random.nextLong() & randomMask;
+	/**
+	 * Generates a number of UUIDs, reserving all the times in a single
+	 * critical section.
+	 */
+	@Override
+	public void fill(long[] msb, long[] lsb) {
+		final int n = checkFill(msb, lsb);
+		final long current = timer.getCurrentTime();
+		synchronized (this) {
+			for (int i = 0; i < n; i++) {
+				msb[i] = getTime(current);
+				lsb[i] = sequence;
+			}
 		}
-		return build(time, node | randomNode);
+		complete(msb, lsb);
 	}
 	
 	/**
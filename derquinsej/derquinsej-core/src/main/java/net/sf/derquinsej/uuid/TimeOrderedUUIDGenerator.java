@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time ordered (version 7) UUID generator. The most significant bits hold
+ * the Unix time in milliseconds (48 bits) followed by the version and 12
+ * bits of sub-millisecond precision taken from the timer, so UUIDs sort by
+ * creation time and primary key inserts are append-mostly. The remaining 62
+ * bits are random, taken from an {@link EntropySource}, by default
+ * {@link EntropySources#secure()}.
+ * <p>
+ * The generator is monotonic within the process: the timestamp (including
+ * the sub-millisecond bits) is kept in an atomic counter and, if the timer has
+ * not advanced, the last value plus one is used, so at more than 4096 UUIDs
+ * per millisecond the timestamps run ahead of the clock until it catches up.
+ * The most significant bits of every UUID are therefore distinct and
+ * increasing, both as signed and as unsigned values, and bulk generation
+ * reserves all of them with a single compare-and-set.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class TimeOrderedUUIDGenerator extends AbstractUUIDGenerator {
+	/** Offset between UUID and Unix time zeroes (UUID time units). */
+	private static final long OFFSET = 0x01b21dd213814000L;
+	/** UUID time units per millisecond. */
+	private static final long UNITS_PER_MS = 10000L;
+	/** Number of sub-millisecond bits. */
+	private static final int SUB_MS_BITS = 12;
+	/** Sub-millisecond mask. */
+	private static final long SUB_MS_MASK = (1L << SUB_MS_BITS) - 1L;
+
+	/** UUID timer. */
+	private final UUIDTimer timer;
+	/** Entropy source. */
+	private final EntropySource entropy;
+	/** Last used timestamp (ms and sub-millisecond bits). */
+	private final AtomicLong last = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param timer UUID timer. If {@code null} {@link SystemUUIDTimer} is used.
+	 * @param entropy Entropy source for the random bits. If {@code null}
+	 *            {@link EntropySources#secure()} is used.
+	 */
+	public TimeOrderedUUIDGenerator(UUIDTimer timer, EntropySource entropy) {
+		this.timer = timer != null ? timer : SystemUUIDTimer.INSTANCE;
+		this.entropy = entropy != null ? entropy : EntropySources.secure();
+	}
+
+	public TimeOrderedUUIDGenerator(UUIDTimer timer) {
+		this(timer, null);
+	}
+
+	public TimeOrderedUUIDGenerator() {
+		this(null, null);
+	}
+
+	/** Returns the current timestamp (ms and sub-millisecond bits). */
+	private long current() {
+		final long t = timer.getCurrentTime() - OFFSET;
+		final long ms = t / UNITS_PER_MS;
+		final long sub = ((t % UNITS_PER_MS) << SUB_MS_BITS) / UNITS_PER_MS;
+		return (ms << SUB_MS_BITS) | sub;
+	}
+
+	/**
+	 * Reserves a number of consecutive timestamps.
+	 * @return The first reserved timestamp.
+	 */
+	private long reserve(int n) {
+		final long current = current();
+		long l;
+		long first;
+		do {
+			l = last.get();
+			first = current > l ? current : l + 1;
+		} while (!last.compareAndSet(l, first + n - 1));
+		return first;
+	}
+
+	public UUID get() {
+		return new UUID(msb(reserve(1)), lsb(entropy.nextLong()));
+	}
+
+	/**
+	 * Generates a number of UUIDs, reserving all the timestamps with a single
+	 * compare-and-set.
+	 */
+	@Override
+	public void fill(long[] msb, long[] lsb) {
+		final int n = checkFill(msb, lsb);
+		if ( n == 0 ) {
+			return;
+		}
+		final long first = reserve(n);
+		for (int i = 0; i < n; i++) {
+			msb[i] = msb(first + i);
+			lsb[i] = lsb(entropy.nextLong());
+		}
+	}
+
+	/**
+	 * Returns the Unix time in milliseconds of a version 7 UUID.
+	 * @param uuid UUID.
+	 * @return The UUID time.
+	 * @throws IllegalArgumentException if the UUID is not a version 7 UUID.
+	 */
+	public static long getTime(UUID uuid) {
+		checkArgument(uuid.version() == 7, "The UUID %s is not a version 7 UUID", uuid);
+		return uuid.getMostSignificantBits() >>> 16;
+	}
+
+	/**
+	 * Returns the most significant bits of a version 7 UUID.
+	 * @param timestamp Timestamp (ms and sub-millisecond bits).
+	 */
+	private static long msb(long timestamp) {
+		long hi = 0x0000000000007000L; // version
+		hi |= (timestamp >>> SUB_MS_BITS) << 16; // unix_ts_ms
+		hi |= timestamp & SUB_MS_MASK; // rand_a, used for sub-millisecond precision
+		return hi;
+	}
+
+	/** Sets the variant bits. */
+	private static long lsb(long bits) {
+		return (bits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // variant
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Set of UUIDs backed by an open addressing hash table. The most and least
+ * significant bits are stored in parallel {@code long} arrays, so there are no
+ * element or node objects and lookups do not follow pointers. As the load
+ * ranges from 3/8 right after growing to 3/4, an element takes between about
+ * 21 and 43 bytes, instead of about 70 for a {@link java.util.HashSet} of
+ * {@link UUID} objects. Elements can be provided
+ * as {@link UUID} objects or as their bits. Null elements are not allowed.
+ * <p>
+ * UUID objects are created when iterating. Iterators support removal but are
+ * not fail-fast. This class is not thread-safe.
+ * 
+ * @author Andres Rodriguez
+ */
+public final class UUIDSet extends AbstractSet<UUID> {
+	/** Hash table. */
+	private final UUIDTable table;
+
+	/**
+	 * Constructor.
+	 * @param expected Expected number of elements.
+	 */
+	public UUIDSet(int expected) {
+		this.table = new UUIDTable(expected, false);
+	}
+
+	/** Constructor. */
+	public UUIDSet() {
+		this(UUIDTable.DEFAULT_SIZE);
+	}
+
+	@Override
+	public int size() {
+		return table.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return table.size() == 0;
+	}
+
+	/**
+	 * Returns whether the set contains a UUID.
+	 * @param msb Most significant bits.
+	 * @param lsb Least significant bits.
+	 */
+	public boolean contains(long msb, long lsb) {
+		return table.find(msb, lsb) >= 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof UUID)) {
+			return false;
+		}
+		final UUID u = (UUID) o;
+		return contains(u.getMostSignificantBits(), u.getLeastSignificantBits());
+	}
+
+	/**
+	 * Adds a UUID.
+	 * @param msb Most significant bits.
+	 * @param lsb Least significant bits.
+	 * @return Whether the UUID was not already present.
+	 */
+	public boolean add(long msb, long lsb) {
+		return table.insert(msb, lsb) < 0;
+	}
+
+	@Override
+	public boolean add(UUID e) {
+		checkNotNull(e, "Null elements not allowed");
+		return add(e.getMostSignificantBits(), e.getLeastSignificantBits());
+	}
+
+	/**
+	 * Removes a UUID.
+	 * @param msb Most significant bits.
+	 * @param lsb Least significant bits.
+	 * @return Whether the UUID was present.
+	 */
+	public boolean remove(long msb, long lsb) {
+		final int slot = table.find(msb, lsb);
+		if (slot < 0) {
+			return false;
+		}
+		table.removeAt(slot, null);
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof UUID)) {
+			return false;
+		}
+		final UUID u = (UUID) o;
+		return remove(u.getMostSignificantBits(), u.getLeastSignificantBits());
+	}
+
+	@Override
+	public void clear() {
+		table.clear();
+	}
+
+	@Override
+	public Iterator<UUID> iterator() {
+		return table.new Iter<UUID>() {
+			@Override
+			UUID element(long m, long l, Object value) {
+				return new UUID(m, l);
+			}
+		};
+	}
+}
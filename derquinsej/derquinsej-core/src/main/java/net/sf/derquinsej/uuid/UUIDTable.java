@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Open addressing hash table of UUIDs, shared by {@link UUIDMap} and
+ * {@link UUIDSet}. The most and least significant bits are kept in parallel
+ * {@code long} arrays, with linear probing and backward shift deletion, so
+ * there are no tombstones. The value (0, 0) marks empty slots, so the nil
+ * UUID is kept in an extra slot after the table. Values, if any, are kept in a
+ * parallel array.
+ * 
+ * @author Andres Rodriguez
+ */
+final class UUIDTable {
+	/** Maximum capacity. */
+	private static final int MAX_CAPACITY = 1 << 30;
+	/** Default expected size. */
+	static final int DEFAULT_SIZE = 16;
+
+	/** Whether values are kept. */
+	private final boolean withValues;
+	/** Most significant bits. */
+	private long[] msb;
+	/** Least significant bits. */
+	private long[] lsb;
+	/** Values, {@code null} if not kept. */
+	private Object[] values;
+	/** Slot mask, the extra slot is mask + 1. */
+	private int mask;
+	/** Size above which the table is grown. */
+	private int threshold;
+	/** Whether the nil UUID is present. */
+	private boolean hasNil;
+	/** Number of entries. */
+	private int size;
+
+	UUIDTable(int expected, boolean withValues) {
+		checkArgument(expected >= 0, "The expected size %s is negative", expected);
+		this.withValues = withValues;
+		allocate(capacity(expected));
+	}
+
+	/** Returns the capacity for an expected size, with a load factor of 3/4. */
+	private static int capacity(int expected) {
+		int n = 4;
+		while (n - (n >>> 2) < expected) {
+			checkArgument(n < MAX_CAPACITY, "Expected size %s too large", expected);
+			n <<= 1;
+		}
+		return n;
+	}
+
+	private void allocate(int capacity) {
+		msb = new long[capacity + 1];
+		lsb = new long[capacity + 1];
+		values = withValues ? new Object[capacity + 1] : null;
+		mask = capacity - 1;
+		threshold = capacity - (capacity >>> 2);
+	}
+
+	/**
+	 * Hashes a UUID. The halves are combined asymmetrically, so that families
+	 * such as (a, b) and (b, a) or (x, x ^ c) do not share a probe chain, and
+	 * then mixed with the MurmurHash3 finalizer.
+	 */
+	private static int hash(long m, long l) {
+		long h = m * 0x9E3779B97F4A7C15L + l;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int) (h ^ (h >>> 33));
+	}
+
+	/** Returns the number of entries. */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the slot of a UUID.
+	 * @return The slot, or -1 if the UUID is not present.
+	 */
+	int find(long m, long l) {
+		if (m == 0L && l == 0L) {
+			return hasNil ? mask + 1 : -1;
+		}
+		final long[] ms = msb;
+		final long[] ls = lsb;
+		int i = hash(m, l) & mask;
+		long mi;
+		long li;
+		while ((mi = ms[i]) != 0L | (li = ls[i]) != 0L) {
+			if (mi == m && li == l) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Inserts a UUID if not present.
+	 * @return The slot of the UUID if it was present, or {@code -(slot + 1)}
+	 *         if it has been inserted.
+	 */
+	int insert(long m, long l) {
+		if (m == 0L && l == 0L) {
+			if (hasNil) {
+				return mask + 1;
+			}
+			hasNil = true;
+			size++;
+			return -(mask + 2);
+		}
+		int i = hash(m, l) & mask;
+		long mi;
+		long li;
+		while ((mi = msb[i]) != 0L | (li = lsb[i]) != 0L) {
+			if (mi == m && li == l) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		if (size >= threshold) {
+			grow();
+			return insert(m, l);
+		}
+		msb[i] = m;
+		lsb[i] = l;
+		size++;
+		return -(i + 1);
+	}
+
+	private void grow() {
+		checkState(mask + 1 < MAX_CAPACITY, "Maximum capacity reached");
+		final long[] oldMsb = msb;
+		final long[] oldLsb = lsb;
+		final Object[] oldValues = values;
+		final int oldCapacity = mask + 1;
+		allocate(oldCapacity << 1);
+		for (int j = 0; j < oldCapacity; j++) {
+			final long m = oldMsb[j];
+			final long l = oldLsb[j];
+			if (m != 0L || l != 0L) {
+				int i = hash(m, l) & mask;
+				while (msb[i] != 0L || lsb[i] != 0L) {
+					i = (i + 1) & mask;
+				}
+				msb[i] = m;
+				lsb[i] = l;
+				if (withValues) {
+					values[i] = oldValues[j];
+				}
+			}
+		}
+		if (withValues) {
+			values[mask + 1] = oldValues[oldCapacity];
+		}
+	}
+
+	/** Returns the value of a slot. */
+	Object value(int slot) {
+		return values[slot];
+	}
+
+	/** Sets the value of a slot, returning the previous one. */
+	Object setValue(int slot, Object value) {
+		final Object previous = values[slot];
+		values[slot] = value;
+		return previous;
+	}
+
+	/**
+	 * Removes the UUID of a slot.
+	 * @param slot Slot.
+	 * @param iterator Iterator performing the removal, if any.
+	 */
+	void removeAt(int slot, Iter<?> iterator) {
+		size--;
+		if (slot > mask) {
+			hasNil = false;
+			if (withValues) {
+				values[slot] = null;
+			}
+			return;
+		}
+		// Backward shift: move back the following entries that can be found
+		// from the freed slot.
+		int last = slot;
+		int j = slot;
+		while (true) {
+			j = (j + 1) & mask;
+			final long m = msb[j];
+			final long l = lsb[j];
+			if (m == 0L && l == 0L) {
+				break;
+			}
+			final int home = hash(m, l) & mask;
+			if (last <= j ? (home <= last || home > j) : (home <= last && home > j)) {
+				if (iterator != null) {
+					iterator.moved(j, last);
+				}
+				msb[last] = m;
+				lsb[last] = l;
+				if (withValues) {
+					values[last] = values[j];
+				}
+				last = j;
+			}
+		}
+		msb[last] = 0L;
+		lsb[last] = 0L;
+		if (withValues) {
+			values[last] = null;
+		}
+	}
+
+	/** Removes every entry. */
+	void clear() {
+		Arrays.fill(msb, 0L);
+		Arrays.fill(lsb, 0L);
+		if (withValues) {
+			Arrays.fill(values, null);
+		}
+		hasNil = false;
+		size = 0;
+	}
+
+	/**
+	 * Iterator over the table. Slots are visited from the last one (the nil
+	 * UUID) to the first one; the entries that a removal moves from an
+	 * unvisited slot to a visited one are remembered and returned at the end.
+	 * The iterator is not fail-fast.
+	 */
+	abstract class Iter<T> implements Iterator<T> {
+		/** Next slot to check. */
+		private int next = mask + 1;
+		/** Slot of the last returned entry, -1 if none or removed. */
+		private int current = -1;
+		/** Entries moved to visited slots (msb, lsb, value). */
+		private List<Object[]> moved;
+		/** Index of the next moved entry to return. */
+		private int movedIndex;
+		/** Last returned moved entry, if removal must be by key. */
+		private Object[] currentMoved;
+
+		/** Builds an element. */
+		abstract T element(long m, long l, Object value);
+
+		private void advance() {
+			while (next >= 0) {
+				if (next > mask ? hasNil : (msb[next] != 0L || lsb[next] != 0L)) {
+					return;
+				}
+				next--;
+			}
+		}
+
+		public boolean hasNext() {
+			advance();
+			return next >= 0 || (moved != null && movedIndex < moved.size());
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (next >= 0) {
+				current = next--;
+				currentMoved = null;
+				return element(msb[current], lsb[current], withValues ? values[current] : null);
+			}
+			current = -1;
+			currentMoved = moved.get(movedIndex++);
+			return element((Long) currentMoved[0], (Long) currentMoved[1], currentMoved[2]);
+		}
+
+		public void remove() {
+			if (current >= 0) {
+				removeAt(current, this);
+				current = -1;
+			} else if (currentMoved != null) {
+				final int slot = find((Long) currentMoved[0], (Long) currentMoved[1]);
+				if (slot >= 0) {
+					removeAt(slot, null);
+				}
+				currentMoved = null;
+			} else {
+				throw new IllegalStateException();
+			}
+		}
+
+		/** Called when a removal moves an entry between slots. */
+		void moved(int from, int to) {
+			// Slots below the current one have not been visited yet.
+			if (from < current && to >= current) {
+				if (moved == null) {
+					moved = Lists.newArrayList();
+				}
+				moved.add(new Object[] { msb[from], lsb[from], withValues ? values[from] : null });
+			}
+		}
+	}
+}
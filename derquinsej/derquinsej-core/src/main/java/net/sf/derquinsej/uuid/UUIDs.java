@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Allocation-light UUID codec. Three forms are supported:
+ * <ul>
+ * <li>Canonical: 36 lowercase hex characters with dashes, as returned by
+ * {@link UUID#toString()}. Parsing is case insensitive but strict: the
+ * dashes must be in place and every group must have its full length.</li>
+ * <li>Base64url: 22 characters of the URL and filename safe alphabet, without
+ * padding.</li>
+ * <li>Binary: 16 bytes, most significant bits first.</li>
+ * </ul>
+ * Values are written directly into the provided {@code char[]},
+ * {@link StringBuilder}, {@code byte[]} or {@link ByteBuffer} and parsed from
+ * a {@link CharSequence} or bytes without intermediate substrings or arrays.
+ * Malformed input is reported with an {@link IllegalArgumentException}.
+ * @author Andres Rodriguez
+ */
+public final class UUIDs {
+	/** Length of the canonical form. */
+	public static final int STRING_LENGTH = 36;
+	/** Length of the base64url form. */
+	public static final int BASE64_LENGTH = 22;
+	/** Length of the binary form. */
+	public static final int BYTES_LENGTH = 16;
+
+	/** Hex digits. */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	/** Base64url digits. */
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.toCharArray();
+	/** Hex digit values, -1 for invalid characters. */
+	private static final byte[] HEX_VALUES = values(HEX, "ABCDEF".toCharArray());
+	/** Base64url digit values, -1 for invalid characters. */
+	private static final byte[] BASE64_VALUES = values(BASE64, new char[0]);
+
+	/** Not instantiable. */
+	private UUIDs() {
+		throw new AssertionError();
+	}
+
+	/** Builds a digit value table, with optional uppercase hex digits. */
+	private static byte[] values(char[] digits, char[] upper) {
+		final byte[] values = new byte[128];
+		Arrays.fill(values, (byte) -1);
+		for (int i = 0; i < digits.length; i++) {
+			values[digits[i]] = (byte) i;
+		}
+		for (int i = 0; i < upper.length; i++) {
+			values[upper[i]] = (byte) (10 + i);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the canonical, lowercase form of a UUID.
+	 * @param uuid UUID.
+	 * @return The canonical form.
+	 */
+	public static String toString(UUID uuid) {
+		final char[] chars = new char[STRING_LENGTH];
+		toChars(uuid, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the canonical, lowercase form of a UUID.
+	 * @param uuid UUID.
+	 * @param dst Destination array.
+	 * @param offset Position of the first character.
+	 * @return The position after the last character.
+	 */
+	public static int toChars(UUID uuid, char[] dst, int offset) {
+		checkPositionIndexes(offset, offset + STRING_LENGTH, dst.length);
+		final long msb = uuid.getMostSignificantBits();
+		final long lsb = uuid.getLeastSignificantBits();
+		hex(msb >>> 32, 8, dst, offset);
+		dst[offset + 8] = '-';
+		hex(msb >>> 16, 4, dst, offset + 9);
+		dst[offset + 13] = '-';
+		hex(msb, 4, dst, offset + 14);
+		dst[offset + 18] = '-';
+		hex(lsb >>> 48, 4, dst, offset + 19);
+		dst[offset + 23] = '-';
+		hex(lsb, 12, dst, offset + 24);
+		return offset + STRING_LENGTH;
+	}
+
+	private static void hex(long value, int digits, char[] dst, int offset) {
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			dst[i] = HEX[(int) value & 0x0F];
+			value >>>= 4;
+		}
+	}
+
+	/**
+	 * Appends the canonical, lowercase form of a UUID.
+	 * @param builder Builder to append to.
+	 * @param uuid UUID.
+	 * @return The provided builder.
+	 */
+	public static StringBuilder append(StringBuilder builder, UUID uuid) {
+		builder.ensureCapacity(builder.length() + STRING_LENGTH);
+		final long msb = uuid.getMostSignificantBits();
+		final long lsb = uuid.getLeastSignificantBits();
+		hex(builder, msb >>> 32, 8).append('-');
+		hex(builder, msb >>> 16, 4).append('-');
+		hex(builder, msb, 4).append('-');
+		hex(builder, lsb >>> 48, 4).append('-');
+		return hex(builder, lsb, 12);
+	}
+
+	private static StringBuilder hex(StringBuilder builder, long value, int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			builder.append(HEX[(int) (value >>> shift) & 0x0F]);
+		}
+		return builder;
+	}
+
+	/**
+	 * Writes the canonical, lowercase form of a UUID as ASCII bytes at the
+	 * buffer position, which is advanced.
+	 * @param buffer Destination buffer.
+	 * @param uuid UUID.
+	 * @return The provided buffer.
+	 */
+	public static ByteBuffer putString(ByteBuffer buffer, UUID uuid) {
+		final long msb = uuid.getMostSignificantBits();
+		final long lsb = uuid.getLeastSignificantBits();
+		if (buffer.remaining() < STRING_LENGTH) {
+			throw new BufferOverflowException();
+		}
+		hex(buffer, msb >>> 32, 8).put((byte) '-');
+		hex(buffer, msb >>> 16, 4).put((byte) '-');
+		hex(buffer, msb, 4).put((byte) '-');
+		hex(buffer, lsb >>> 48, 4).put((byte) '-');
+		return hex(buffer, lsb, 12);
+	}
+
+	private static ByteBuffer hex(ByteBuffer buffer, long value, int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			buffer.put((byte) HEX[(int) (value >>> shift) & 0x0F]);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Parses the canonical form of a UUID.
+	 * @param s Text to parse. It must have exactly 36 characters.
+	 * @return The parsed UUID.
+	 * @throws IllegalArgumentException if the text is not a valid UUID.
+	 */
+	public static UUID fromString(CharSequence s) {
+		checkNotNull(s, "The text to parse must be provided");
+		checkArgument(s.length() == STRING_LENGTH, "Invalid UUID length %s", s.length());
+		return fromString(s, 0);
+	}
+
+	/**
+	 * Parses the canonical form of a UUID embedded in a longer text.
+	 * @param s Text to parse.
+	 * @param offset Position of the first character of the UUID.
+	 * @return The parsed UUID.
+	 * @throws IllegalArgumentException if the text at the offset is not a
+	 *             valid UUID.
+	 */
+	public static UUID fromString(CharSequence s, int offset) {
+		checkPositionIndexes(offset, offset + STRING_LENGTH, s.length());
+		dash(s.charAt(offset + 8), offset + 8);
+		dash(s.charAt(offset + 13), offset + 13);
+		dash(s.charAt(offset + 18), offset + 18);
+		dash(s.charAt(offset + 23), offset + 23);
+		long msb = hex(s, offset, 8);
+		msb = (msb << 16) | hex(s, offset + 9, 4);
+		msb = (msb << 16) | hex(s, offset + 14, 4);
+		final long lsb = (hex(s, offset + 19, 4) << 48) | hex(s, offset + 24, 12);
+		return new UUID(msb, lsb);
+	}
+
+	private static long hex(CharSequence s, int offset, int digits) {
+		long value = 0L;
+		for (int i = offset; i < offset + digits; i++) {
+			value = (value << 4) | digit(HEX_VALUES, s.charAt(i), i);
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the canonical form of a UUID from ASCII bytes at the buffer
+	 * position, which is advanced.
+	 * @param buffer Source buffer.
+	 * @return The parsed UUID.
+	 * @throws IllegalArgumentException if the bytes are not a valid UUID.
+	 * @throws BufferUnderflowException if there are less than 36
+	 *             bytes remaining.
+	 */
+	public static UUID getString(ByteBuffer buffer) {
+		if (buffer.remaining() < STRING_LENGTH) {
+			throw new BufferUnderflowException();
+		}
+		final int offset = buffer.position();
+		dash((char) buffer.get(offset + 8), 8);
+		dash((char) buffer.get(offset + 13), 13);
+		dash((char) buffer.get(offset + 18), 18);
+		dash((char) buffer.get(offset + 23), 23);
+		long msb = hex(buffer, 8);
+		buffer.get();
+		msb = (msb << 16) | hex(buffer, 4);
+		buffer.get();
+		msb = (msb << 16) | hex(buffer, 4);
+		buffer.get();
+		long lsb = hex(buffer, 4);
+		buffer.get();
+		lsb = (lsb << 48) | hex(buffer, 12);
+		return new UUID(msb, lsb);
+	}
+
+	private static long hex(ByteBuffer buffer, int digits) {
+		long value = 0L;
+		for (int i = 0; i < digits; i++) {
+			value = (value << 4) | digit(HEX_VALUES, (char) (buffer.get() & 0xFF), buffer.position() - 1);
+		}
+		return value;
+	}
+
+	private static void dash(char c, int index) {
+		if (c != '-') {
+			throw new IllegalArgumentException("Expected '-' at position " + index);
+		}
+	}
+
+	private static int digit(byte[] values, char c, int index) {
+		final int v = c < 128 ? values[c] : -1;
+		if (v < 0) {
+			throw new IllegalArgumentException("Invalid character at position " + index);
+		}
+		return v;
+	}
+
+	/**
+	 * Returns the base64url form of a UUID.
+	 * @param uuid UUID.
+	 * @return The base64url form, without padding.
+	 */
+	public static String toBase64(UUID uuid) {
+		final char[] chars = new char[BASE64_LENGTH];
+		toBase64(uuid, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the base64url form of a UUID.
+	 * @param uuid UUID.
+	 * @param dst Destination array.
+	 * @param offset Position of the first character.
+	 * @return The position after the last character.
+	 */
+	public static int toBase64(UUID uuid, char[] dst, int offset) {
+		checkPositionIndexes(offset, offset + BASE64_LENGTH, dst.length);
+		final long msb = uuid.getMostSignificantBits();
+		final long lsb = uuid.getLeastSignificantBits();
+		// 21 digits of 6 bits, from the most significant ones.
+		int shift = 122;
+		for (int i = offset; i < offset + BASE64_LENGTH - 1; i++, shift -= 6) {
+			final long bits;
+			if (shift >= 64) {
+				bits = msb >>> (shift - 64);
+			} else if (shift > 58) {
+				bits = (lsb >>> shift) | (msb << (64 - shift));
+			} else {
+				bits = lsb >>> shift;
+			}
+			dst[i] = BASE64[(int) bits & 0x3F];
+		}
+		// The last 2 bits.
+		dst[offset + BASE64_LENGTH - 1] = BASE64[(int) (lsb & 0x03) << 4];
+		return offset + BASE64_LENGTH;
+	}
+
+	/**
+	 * Parses the base64url form of a UUID.
+	 * @param s Text to parse. It must have exactly 22 characters.
+	 * @return The parsed UUID.
+	 * @throws IllegalArgumentException if the text is not a valid UUID.
+	 */
+	public static UUID fromBase64(CharSequence s) {
+		checkNotNull(s, "The text to parse must be provided");
+		checkArgument(s.length() == BASE64_LENGTH, "Invalid UUID length %s", s.length());
+		return fromBase64(s, 0);
+	}
+
+	/**
+	 * Parses the base64url form of a UUID embedded in a longer text.
+	 * @param s Text to parse.
+	 * @param offset Position of the first character of the UUID.
+	 * @return The parsed UUID.
+	 * @throws IllegalArgumentException if the text at the offset is not a
+	 *             valid UUID.
+	 */
+	public static UUID fromBase64(CharSequence s, int offset) {
+		checkPositionIndexes(offset, offset + BASE64_LENGTH, s.length());
+		long msb = 0L;
+		long lsb = 0L;
+		final int last = offset + BASE64_LENGTH - 1;
+		for (int i = offset; i < last; i++) {
+			msb = (msb << 6) | (lsb >>> 58);
+			lsb = (lsb << 6) | digit(BASE64_VALUES, s.charAt(i), i);
+		}
+		final int v = digit(BASE64_VALUES, s.charAt(last), last);
+		if ((v & 0x0F) != 0) {
+			throw new IllegalArgumentException("Invalid character at position " + last);
+		}
+		msb = (msb << 2) | (lsb >>> 62);
+		lsb = (lsb << 2) | (v >>> 4);
+		return new UUID(msb, lsb);
+	}
+
+	/**
+	 * Returns the binary form of a UUID.
+	 * @param uuid UUID.
+	 * @return A new 16-byte array.
+	 */
+	public static byte[] toBytes(UUID uuid) {
+		final byte[] bytes = new byte[BYTES_LENGTH];
+		toBytes(uuid, bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Writes the binary form of a UUID.
+	 * @param uuid UUID.
+	 * @param dst Destination array.
+	 * @param offset Position of the first byte.
+	 * @return The position after the last byte.
+	 */
+	public static int toBytes(UUID uuid, byte[] dst, int offset) {
+		checkPositionIndexes(offset, offset + BYTES_LENGTH, dst.length);
+		bytes(uuid.getMostSignificantBits(), dst, offset);
+		bytes(uuid.getLeastSignificantBits(), dst, offset + 8);
+		return offset + BYTES_LENGTH;
+	}
+
+	private static void bytes(long value, byte[] dst, int offset) {
+		for (int i = offset + 7; i >= offset; i--) {
+			dst[i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Parses the binary form of a UUID.
+	 * @param bytes Bytes to parse. There must be exactly 16.
+	 * @return The parsed UUID.
+	 * @throws IllegalArgumentException if the array length is not 16.
+	 */
+	public static UUID fromBytes(byte[] bytes) {
+		checkNotNull(bytes, "The bytes to parse must be provided");
+		checkArgument(bytes.length == BYTES_LENGTH, "Invalid UUID length %s", bytes.length);
+		return fromBytes(bytes, 0);
+	}
+
+	/**
+	 * Parses the binary form of a UUID embedded in a longer array.
+	 * @param bytes Bytes to parse.
+	 * @param offset Position of the first byte of the UUID.
+	 * @return The parsed UUID.
+	 */
+	public static UUID fromBytes(byte[] bytes, int offset) {
+		checkPositionIndexes(offset, offset + BYTES_LENGTH, bytes.length);
+		return new UUID(toLong(bytes, offset), toLong(bytes, offset + 8));
+	}
+
+	private static long toLong(byte[] bytes, int offset) {
+		long value = 0L;
+		for (int i = offset; i < offset + 8; i++) {
+			value = (value << 8) | (bytes[i] & 0xFFL);
+		}
+		return value;
+	}
+
+	/**
+	 * Writes the binary form of a UUID at the buffer position, which is
+	 * advanced. The buffer byte order is ignored.
+	 * @param buffer Destination buffer.
+	 * @param uuid UUID.
+	 * @return The provided buffer.
+	 */
+	public static ByteBuffer putBytes(ByteBuffer buffer, UUID uuid) {
+		if (buffer.remaining() < BYTES_LENGTH) {
+			throw new BufferOverflowException();
+		}
+		final long msb = uuid.getMostSignificantBits();
+		final long lsb = uuid.getLeastSignificantBits();
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer.put((byte) (msb >>> shift));
+		}
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer.put((byte) (lsb >>> shift));
+		}
+		return buffer;
+	}
+
+	/**
+	 * Reads the binary form of a UUID at the buffer position, which is
+	 * advanced. The buffer byte order is ignored.
+	 * @param buffer Source buffer.
+	 * @return The read UUID.
+	 */
+	public static UUID getBytes(ByteBuffer buffer) {
+		if (buffer.remaining() < BYTES_LENGTH) {
+			throw new BufferUnderflowException();
+		}
+		long msb = 0L;
+		for (int i = 0; i < 8; i++) {
+			msb = (msb << 8) | (buffer.get() & 0xFFL);
+		}
+		long lsb = 0L;
+		for (int i = 0; i < 8; i++) {
+			lsb = (lsb << 8) | (buffer.get() & 0xFFL);
+		}
+		return new UUID(msb, lsb);
+	}
+
+	/**
+	 * Reorders the timestamp fields of a time based (version 1) UUID, putting
+	 * the most significant ones first (time_hi_and_version, time_mid,
+	 * time_low), so that the binary form of UUIDs generated in sequence is
+	 * increasing. The reordering is applied to any UUID and is undone by
+	 * {@link #fromTimeFirst(UUID)}.
+	 * @param uuid UUID.
+	 * @return The reordered UUID.
+	 */
+	public static UUID toTimeFirst(UUID uuid) {
+		final long msb = uuid.getMostSignificantBits();
+		final long reordered = (msb << 48) | ((msb << 16) & 0x0000FFFF00000000L) | (msb >>> 32);
+		return new UUID(reordered, uuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * Undoes the reordering performed by {@link #toTimeFirst(UUID)}.
+	 * @param uuid Reordered UUID.
+	 * @return The original UUID.
+	 */
+	public static UUID fromTimeFirst(UUID uuid) {
+		final long msb = uuid.getMostSignificantBits();
+		final long original = (msb << 32) | ((msb >>> 16) & 0x00000000FFFF0000L) | (msb >>> 48);
+		return new UUID(original, uuid.getLeastSignificantBits());
+	}
+}
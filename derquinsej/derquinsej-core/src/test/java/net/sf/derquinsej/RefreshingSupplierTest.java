@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for RefreshingSupplier.
+ * @author Andres Rodriguez
+ */
+public class RefreshingSupplierTest {
+	/** Executor that queues the tasks until explicitly run. */
+	private static final class ManualExecutor implements Executor {
+		final List<Runnable> tasks = Lists.newArrayList();
+
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			for (Runnable r : tasks) {
+				r.run();
+			}
+			tasks.clear();
+		}
+	}
+
+	/** Supplier returning increasing values, optionally failing. */
+	private static final class Source implements Supplier<Integer> {
+		final AtomicInteger value = new AtomicInteger();
+		volatile boolean fail;
+
+		public Integer get() {
+			if (fail) {
+				throw new IllegalStateException();
+			}
+			return value.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Refresh-ahead and stale on failure.
+	 */
+	@Test
+	public void refresh() throws InterruptedException {
+		final Source source = new Source();
+		final ManualExecutor executor = new ManualExecutor();
+		final RefreshingSupplier<Integer> s = RefreshingSupplier.create(source, 10L, TimeUnit.MILLISECONDS,
+				executor);
+		assertEquals(s.get(), Integer.valueOf(1));
+		assertEquals(s.get(), Integer.valueOf(1));
+		assertTrue(executor.tasks.isEmpty());
+		Thread.sleep(20L);
+		// Expired: the stale value is served and a single reload is submitted.
+		assertEquals(s.get(), Integer.valueOf(1));
+		assertEquals(s.get(), Integer.valueOf(1));
+		assertEquals(executor.tasks.size(), 1);
+		assertTrue(s.isReloading());
+		executor.runAll();
+		assertFalse(s.isReloading());
+		assertEquals(s.get(), Integer.valueOf(2));
+		// Failed reload.
+		source.fail = true;
+		Thread.sleep(20L);
+		assertEquals(s.get(), Integer.valueOf(2));
+		executor.runAll();
+		assertEquals(s.get(), Integer.valueOf(2));
+		assertTrue(executor.tasks.isEmpty());
+		assertEquals(s.getFailures(), 1L);
+		assertEquals(s.getLoads(), 3L);
+	}
+
+	/**
+	 * Initial load failure is propagated.
+	 */
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void initialFailure() {
+		final Source source = new Source();
+		source.fail = true;
+		RefreshingSupplier.create(source, 1L, TimeUnit.SECONDS, new ManualExecutor()).get();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests for ActiveObjectExecutorService.
+ * @author Andres Rodriguez
+ */
+public class ActiveObjectExecutorServiceTest {
+	private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	@AfterClass
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Tasks are rejected when the object is OFF.
+	 */
+	@Test(expectedExceptions = RejectedExecutionException.class)
+	public void off() {
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null);
+		new ActiveObjectExecutorService(s, pool).submit((Callable<Integer>) new Counting(new AtomicInteger()));
+	}
+
+	/**
+	 * Stop waits for the submitted tasks.
+	 */
+	@Test
+	public void drain() throws Exception {
+		final ActiveObjectMetrics metrics = ActiveObjectMetrics.create(TimeUnit.MICROSECONDS);
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null, null, metrics);
+		final ActiveObjectExecutorService e = new ActiveObjectExecutorService(s, pool);
+		s.start();
+		final AtomicInteger counter = new AtomicInteger();
+		final List<Callable<Integer>> tasks = Lists.newArrayList();
+		for (int i = 0; i < 20; i++) {
+			e.submit((Callable<Integer>) new Counting(counter));
+			e.execute(new Counting(counter));
+			tasks.add(new Counting(counter));
+		}
+		final List<Future<Integer>> futures = e.invokeAll(tasks);
+		assertEquals(futures.size(), 20);
+		s.stop();
+		assertEquals(counter.get(), 60);
+		assertEquals(metrics.getInFlight(), 0);
+		assertEquals(metrics.getRequests().getCount(), 60L);
+		assertTrue(e.isTerminated());
+	}
+
+	/**
+	 * Cancelled tasks end their requests.
+	 */
+	@Test
+	public void cancel() throws Exception {
+		final ActiveObjectMetrics metrics = ActiveObjectMetrics.create(TimeUnit.MICROSECONDS);
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null, null, metrics);
+		final ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			final ActiveObjectExecutorService e = new ActiveObjectExecutorService(s, single);
+			s.start();
+			final Future<?> blocker = e.submit(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(50L);
+					} catch (InterruptedException ex) {
+						// nothing
+					}
+				}
+			});
+			final Future<Integer> queued = e.submit((Callable<Integer>) new Counting(new AtomicInteger()));
+			assertEquals(metrics.getInFlight(), 2);
+			queued.cancel(false);
+			assertEquals(metrics.getInFlight(), 1);
+			blocker.get();
+			s.stop();
+			assertEquals(metrics.getInFlight(), 0);
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	/**
+	 * Tasks cancelled while running keep their requests until they return, and
+	 * shutdown is idempotent.
+	 */
+	@Test
+	public void cancelRunning() throws Exception {
+		final ActiveObjectMetrics metrics = ActiveObjectMetrics.create(TimeUnit.MICROSECONDS);
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, pool, null, metrics);
+		final ActiveObjectExecutorService e = new ActiveObjectExecutorService(s, pool);
+		s.start();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Future<?> running = e.submit(new Runnable() {
+			public void run() {
+				started.countDown();
+				Uninterruptibles.awaitUninterruptibly(release);
+			}
+		});
+		started.await();
+		running.cancel(true);
+		assertEquals(metrics.getInFlight(), 1);
+		e.shutdown();
+		e.shutdown();
+		assertTrue(e.isShutdown());
+		assertFalse(e.awaitTermination(50L, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(e.awaitTermination(1L, TimeUnit.SECONDS));
+		assertEquals(metrics.getInFlight(), 0);
+		e.shutdown();
+		assertTrue(e.isTerminated());
+	}
+
+	/**
+	 * Termination is awaited while ON, and shutdown works without asynchronous
+	 * transitions and while starting.
+	 */
+	@Test
+	public void termination() throws Exception {
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null);
+		final ActiveObjectExecutorService e = new ActiveObjectExecutorService(s, pool);
+		s.start();
+		final long t0 = System.nanoTime();
+		assertFalse(e.awaitTermination(50L, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(50L));
+		final CountDownLatch release = new CountDownLatch(1);
+		e.execute(new Runnable() {
+			public void run() {
+				Uninterruptibles.awaitUninterruptibly(release);
+			}
+		});
+		e.shutdown();
+		assertTrue(e.isShutdown());
+		assertFalse(e.isTerminated());
+		release.countDown();
+		assertTrue(e.awaitTermination(1L, TimeUnit.SECONDS));
+		final CountDownLatch starting = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final ActiveObjectSupport a = new ActiveObjectSupport(new Runnable() {
+			public void run() {
+				starting.countDown();
+				Uninterruptibles.awaitUninterruptibly(started);
+			}
+		}, null, null, pool);
+		final ActiveObjectExecutorService ae = new ActiveObjectExecutorService(a, pool);
+		a.startAsynchronously();
+		starting.await();
+		final Thread shutdown = new Thread() {
+			public void run() {
+				ae.shutdown();
+			}
+		};
+		shutdown.start();
+		Thread.sleep(20L);
+		assertEquals(a.getStatus(), ActiveObjectStatus.STARTING);
+		started.countDown();
+		shutdown.join();
+		assertTrue(ae.isShutdown());
+		assertTrue(ae.awaitTermination(1L, TimeUnit.SECONDS));
+	}
+
+	private static final class Counting implements Callable<Integer>, Runnable {
+		private final AtomicInteger counter;
+
+		Counting(AtomicInteger counter) {
+			this.counter = counter;
+		}
+
+		public Integer call() throws Exception {
+			Thread.sleep(1L);
+			return counter.incrementAndGet();
+		}
+
+		public void run() {
+			try {
+				call();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
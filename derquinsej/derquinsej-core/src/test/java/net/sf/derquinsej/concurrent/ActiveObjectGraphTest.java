@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for ActiveObjectGraph.
+ * @author Andres Rodriguez
+ */
+public class ActiveObjectGraphTest {
+	private final ExecutorService pool = Executors.newFixedThreadPool(4);
+	private final List<String> events = Collections.synchronizedList(Lists.<String> newArrayList());
+
+	@AfterClass
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private ActiveObjectSupport object(final String name, final boolean fail) {
+		final Runnable onStart = new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(10L);
+				} catch (InterruptedException e) {
+					// nothing
+				}
+				if (fail) {
+					throw new IllegalArgumentException(name);
+				}
+				events.add("+" + name);
+			}
+		};
+		final Runnable onStop = new Runnable() {
+			public void run() {
+				events.add("-" + name);
+			}
+		};
+		return new ActiveObjectSupport(onStart, null, onStop, null);
+	}
+
+	private ActiveObjectGraph<String> graph(boolean fail) {
+		return ActiveObjectGraph.<String> builder().add("D", object("D", false), ImmutableList.of("B", "C"))
+				.add("A", object("A", false)).add("B", object("B", false), ImmutableList.of("A"))
+				.add("C", object("C", fail), ImmutableList.of("A")).get();
+	}
+
+	private void before(String first, String second) {
+		assertTrue(events.indexOf(first) < events.indexOf(second), events.toString());
+	}
+
+	/**
+	 * Start and stop.
+	 */
+	@Test
+	public void lifecycle() {
+		events.clear();
+		final ActiveObjectGraph<String> g = graph(false);
+		assertEquals(g.getKeys().get(0), "A");
+		assertEquals(g.getKeys().get(3), "D");
+		final ActiveObjectGraph.Report<String> report = g.start(pool);
+		System.out.println(report);
+		for (String k : g.getKeys()) {
+			assertEquals(g.get(k).getStatus(), ActiveObjectStatus.ON);
+		}
+		before("+A", "+B");
+		before("+A", "+C");
+		before("+B", "+D");
+		before("+C", "+D");
+		assertEquals(report.getCriticalPath().size(), 3);
+		assertEquals(report.getDurations().size(), 4);
+		g.stop(pool);
+		before("-D", "-B");
+		before("-D", "-C");
+		before("-B", "-A");
+		before("-C", "-A");
+		for (String k : g.getKeys()) {
+			assertEquals(g.get(k).getStatus(), ActiveObjectStatus.OFF);
+		}
+	}
+
+	/**
+	 * Startup failure.
+	 */
+	@Test
+	public void failure() {
+		events.clear();
+		final ActiveObjectGraph<String> g = graph(true);
+		try {
+			g.start(pool);
+			throw new AssertionError();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		assertTrue(!events.contains("+D"));
+		assertTrue(events.contains("-A"));
+		for (String k : g.getKeys()) {
+			assertEquals(g.get(k).getStatus(), ActiveObjectStatus.OFF);
+		}
+	}
+
+	/**
+	 * Loop detection.
+	 */
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void loop() {
+		ActiveObjectGraph.<String> builder().add("A", object("A", false), ImmutableList.of("B"))
+				.add("B", object("B", false), ImmutableList.of("A")).get();
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests for ActiveObjectSupport.
+ * @author Andres Rodriguez
+ */
+public class ActiveObjectSupportTest {
+	/**
+	 * Basic lifecycle.
+	 */
+	@Test
+	public void lifecycle() {
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null);
+		assertEquals(s.getStatus(), ActiveObjectStatus.OFF);
+		assertFalse(s.tryBegin());
+		s.start();
+		assertEquals(s.getStatus(), ActiveObjectStatus.ON);
+		assertTrue(s.tryBegin());
+		s.end();
+		s.stop();
+		assertEquals(s.getStatus(), ActiveObjectStatus.OFF);
+	}
+
+	/**
+	 * Requests are not accepted when OFF.
+	 */
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void off() {
+		new ActiveObjectSupport(null, null, null, null).begin();
+	}
+
+	/**
+	 * Fixed limiter.
+	 */
+	@Test
+	public void fixed() {
+		final ConcurrencyLimiter limiter = ConcurrencyLimiters.fixed(2);
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null, limiter);
+		s.start();
+		assertTrue(s.tryBegin());
+		s.begin();
+		assertEquals(limiter.getInFlight(), 2);
+		assertFalse(s.tryBegin());
+		try {
+			s.begin();
+			throw new AssertionError();
+		} catch (RejectedExecutionException e) {
+			// ok
+		}
+		s.end();
+		assertTrue(s.tryBeginDetached());
+		s.end(1L, TimeUnit.MILLISECONDS);
+		s.end();
+		assertEquals(limiter.getInFlight(), 0);
+		try {
+			limiter.release(-1L);
+			throw new AssertionError();
+		} catch (IllegalStateException e) {
+			// ok
+		}
+		assertEquals(limiter.getInFlight(), 0);
+		assertTrue(s.tryBegin());
+		assertTrue(s.tryBegin());
+		assertFalse(s.tryBegin());
+		s.end();
+		s.end();
+		s.stop();
+	}
+
+	/**
+	 * AIMD limiter.
+	 */
+	@Test
+	public void aimd() {
+		final ConcurrencyLimiter limiter = ConcurrencyLimiters.aimd(10, 1, 20, 1L, TimeUnit.MILLISECONDS, 0.5);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		assertFalse(limiter.tryAcquire());
+		limiter.release(TimeUnit.MICROSECONDS.toNanos(10L));
+		assertEquals(limiter.getLimit(), 11);
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10L));
+		assertEquals(limiter.getLimit(), 5);
+		assertEquals(limiter.getInFlight(), 8);
+		assertFalse(limiter.tryAcquire());
+	}
+
+	/**
+	 * Gradient limiter.
+	 */
+	@Test
+	public void gradient() {
+		final ConcurrencyLimiter limiter = ConcurrencyLimiters.gradient(16, 1, 100);
+		for (int i = 0; i < 16; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		limiter.release(1000L);
+		final int grown = limiter.getLimit();
+		assertTrue(grown > 16);
+		for (int i = 0; i < 15; i++) {
+			limiter.release(10000L);
+		}
+		assertTrue(limiter.getLimit() < grown);
+		assertEquals(limiter.getInFlight(), 0);
+	}
+
+	/**
+	 * Start times left by a request begun attached and ended detached are
+	 * discarded.
+	 */
+	@Test
+	public void mismatched() throws InterruptedException {
+		final ActiveObjectMetrics metrics = ActiveObjectMetrics.create(TimeUnit.MICROSECONDS);
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null, null, metrics);
+		s.start();
+		s.begin();
+		Thread.sleep(50L);
+		s.end(0L, TimeUnit.NANOSECONDS);
+		s.begin();
+		s.end();
+		assertEquals(metrics.getRequests().getCount(), 2L);
+		assertTrue(metrics.getRequests().getMax() < TimeUnit.MILLISECONDS.toMicros(50L));
+		s.stop();
+	}
+
+	/**
+	 * Metrics.
+	 */
+	@Test
+	public void metrics() throws InterruptedException {
+		final ActiveObjectMetrics metrics = ActiveObjectMetrics.create(TimeUnit.MICROSECONDS);
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null, null, metrics);
+		s.start();
+		assertEquals(metrics.getStarting().getCount(), 1L);
+		s.begin();
+		s.begin();
+		assertEquals(metrics.getInFlight(), 2);
+		Thread.sleep(2L);
+		s.end();
+		s.end();
+		assertTrue(s.tryBeginDetached());
+		s.end(-1L, TimeUnit.MILLISECONDS);
+		assertEquals(metrics.getInFlight(), 0);
+		assertEquals(metrics.getPeakInFlight(), 2);
+		assertEquals(metrics.getRequests().getCount(), 2L);
+		assertTrue(metrics.getRequests().getMax() >= 2000L);
+		s.stop();
+		assertEquals(metrics.getStopping().getCount(), 1L);
+		System.out.println(metrics);
+	}
+
+	/**
+	 * Stray ends and aborted startups do not corrupt the metrics.
+	 */
+	@Test
+	public void strayMetrics() {
+		final ActiveObjectMetrics metrics = ActiveObjectMetrics.create(TimeUnit.MICROSECONDS);
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, null, null, metrics);
+		s.start();
+		try {
+			s.end();
+			throw new AssertionError();
+		} catch (IllegalStateException e) {
+			// ok
+		}
+		assertEquals(metrics.getInFlight(), 0);
+		s.stop();
+		final ActiveObjectMetrics aborted = ActiveObjectMetrics.create(TimeUnit.MICROSECONDS);
+		final ActiveObjectSupport f = new ActiveObjectSupport(new Runnable() {
+			public void run() {
+				throw new UnsupportedOperationException();
+			}
+		}, null, null, null, null, aborted);
+		try {
+			f.start();
+			throw new AssertionError();
+		} catch (UnsupportedOperationException e) {
+			// ok
+		}
+		assertEquals(aborted.getStarting().getCount(), 0L);
+	}
+
+	/**
+	 * Asynchronous transitions.
+	 */
+	@Test
+	public void async() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null, executor);
+			assertEquals(s.startAsynchronously().get(), ActiveObjectStatus.ON);
+			assertEquals(s.getStatus(), ActiveObjectStatus.ON);
+			assertEquals(s.startAsynchronously().get(), ActiveObjectStatus.ON);
+			assertEquals(s.stopAsynchronously().get(), ActiveObjectStatus.OFF);
+			assertEquals(s.getStatus(), ActiveObjectStatus.OFF);
+			final ActiveObjectSupport f = new ActiveObjectSupport(new Runnable() {
+				public void run() {
+					throw new UnsupportedOperationException();
+				}
+			}, null, null, executor);
+			try {
+				f.startAsynchronously().get();
+				throw new AssertionError();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof UnsupportedOperationException);
+			}
+			assertEquals(f.getStatus(), ActiveObjectStatus.OFF);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Concurrent asynchronous transitions share the future of the transition in
+	 * progress.
+	 */
+	@Test
+	public void sharedFutures() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			final Runnable block = new Runnable() {
+				public void run() {
+					Uninterruptibles.awaitUninterruptibly(latch);
+				}
+			};
+			final ActiveObjectSupport s = new ActiveObjectSupport(block, null, null, executor);
+			final ListenableFuture<ActiveObjectStatus> started = s.startAsynchronously();
+			assertSame(s.startAsynchronously(), started);
+			latch.countDown();
+			assertEquals(started.get(), ActiveObjectStatus.ON);
+			assertTrue(s.tryBeginDetached());
+			final ListenableFuture<ActiveObjectStatus> stopped = s.stopAsynchronously();
+			assertEquals(s.getStatus(), ActiveObjectStatus.STOPPING);
+			assertSame(s.stopAsynchronously(), stopped);
+			s.end();
+			assertEquals(stopped.get(), ActiveObjectStatus.OFF);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Stopping listeners run before waiting for the in-flight requests.
+	 */
+	@Test
+	public void stopping() throws Exception {
+		final ActiveObjectSupport s = new ActiveObjectSupport(null, null, null);
+		final CountDownLatch latch = new CountDownLatch(1);
+		s.addStoppingListener(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		});
+		s.start();
+		assertTrue(s.tryBeginDetached());
+		final Thread stopper = new Thread(new Runnable() {
+			public void run() {
+				s.stop();
+			}
+		});
+		stopper.start();
+		assertTrue(latch.await(1L, TimeUnit.SECONDS));
+		assertEquals(s.getStatus(), ActiveObjectStatus.STOPPING);
+		s.end(0L, TimeUnit.NANOSECONDS);
+		stopper.join();
+		assertEquals(s.getStatus(), ActiveObjectStatus.OFF);
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests for AdaptiveThreadPool.
+ * @author Andres Rodriguez
+ */
+public class AdaptiveThreadPoolTest {
+	/**
+	 * Blocking tasks make the pool grow, stopping drains it.
+	 */
+	@Test
+	public void grow() {
+		final AdaptiveThreadPool pool = AdaptiveThreadPool.builder().threads(1, 16)
+				.period(20L, TimeUnit.MILLISECONDS).maxQueueWait(1L, TimeUnit.MILLISECONDS).get();
+		pool.start();
+		final AtomicInteger done = new AtomicInteger();
+		final Runnable task = new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(5L);
+				} catch (InterruptedException e) {
+					// nothing
+				}
+				done.incrementAndGet();
+			}
+		};
+		final int n = 400;
+		for (int i = 0; i < n; i++) {
+			pool.execute(task);
+		}
+		pool.stop();
+		System.out.println(pool);
+		assertEquals(done.get(), n);
+		assertTrue(pool.isTerminated());
+		assertTrue(pool.getResizes() > 0);
+		assertTrue(pool.getTarget() > 1);
+		assertEquals(pool.getRunTime().getCount(), (long) n);
+		assertEquals(pool.getSupport().getStatus(), ActiveObjectStatus.OFF);
+	}
+
+	/**
+	 * The pool grows while every thread is blocked and no task completes.
+	 */
+	@Test
+	public void blocked() throws InterruptedException {
+		final AdaptiveThreadPool pool = AdaptiveThreadPool.builder().threads(1, 8)
+				.period(10L, TimeUnit.MILLISECONDS).maxQueueWait(1L, TimeUnit.MILLISECONDS).get();
+		pool.start();
+		final int n = 4;
+		final CountDownLatch running = new CountDownLatch(n);
+		final CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < n; i++) {
+			pool.execute(new Runnable() {
+				public void run() {
+					running.countDown();
+					Uninterruptibles.awaitUninterruptibly(release);
+				}
+			});
+		}
+		final boolean grown = running.await(5L, TimeUnit.SECONDS);
+		release.countDown();
+		pool.stop();
+		assertTrue(grown);
+		assertEquals(pool.getRunTime().getCount(), (long) n);
+	}
+
+	/**
+	 * A stopped pool cannot be restarted.
+	 */
+	@Test
+	public void restart() {
+		final AdaptiveThreadPool pool = AdaptiveThreadPool.builder().get();
+		pool.start();
+		pool.stop();
+		try {
+			pool.start();
+			throw new AssertionError();
+		} catch (IllegalStateException e) {
+			// ok
+		}
+		assertEquals(pool.getSupport().getStatus(), ActiveObjectStatus.OFF);
+		assertTrue(pool.isTerminated());
+	}
+
+	/** Returns a pool whose threads, including the timer, are recorded. */
+	private static AdaptiveThreadPool recorded(final List<Thread> threads) {
+		final ThreadFactory factory = Executors.defaultThreadFactory();
+		return AdaptiveThreadPool.builder().threads(1, 4).period(5L, TimeUnit.MILLISECONDS)
+				.threadFactory(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						final Thread t = factory.newThread(r);
+						t.setDaemon(true);
+						threads.add(t);
+						return t;
+					}
+				}).get();
+	}
+
+	private static void assertStopped(AdaptiveThreadPool pool, List<Thread> threads) throws InterruptedException {
+		assertTrue(pool.getSupport().await(1L, TimeUnit.SECONDS));
+		assertEquals(pool.getSupport().getStatus(), ActiveObjectStatus.OFF);
+		for (Thread t : threads) {
+			t.join(1000L);
+			assertFalse(t.isAlive());
+		}
+	}
+
+	/**
+	 * Shutting down the pool directly stops the support and the timer.
+	 */
+	@Test
+	public void shutdown() throws InterruptedException {
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		final AdaptiveThreadPool pool = recorded(threads);
+		pool.start();
+		final AtomicInteger done = new AtomicInteger();
+		for (int i = 0; i < 10; i++) {
+			pool.execute(new Runnable() {
+				public void run() {
+					Uninterruptibles.sleepUninterruptibly(5L, TimeUnit.MILLISECONDS);
+					done.incrementAndGet();
+				}
+			});
+		}
+		assertTrue(MoreExecutors.shutdownAndAwaitTermination(pool, 5L, TimeUnit.SECONDS));
+		assertEquals(done.get(), 10);
+		assertStopped(pool, threads);
+	}
+
+	/**
+	 * Shutting down the pool immediately discards the queued tasks and stops
+	 * the support and the timer.
+	 */
+	@Test
+	public void shutdownNow() throws InterruptedException {
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		final AdaptiveThreadPool pool = recorded(threads);
+		pool.start();
+		final CountDownLatch running = new CountDownLatch(1);
+		final Runnable task = new Runnable() {
+			public void run() {
+				running.countDown();
+				try {
+					Thread.sleep(10000L);
+				} catch (InterruptedException e) {
+					// nothing
+				}
+			}
+		};
+		pool.execute(task);
+		assertTrue(running.await(1L, TimeUnit.SECONDS));
+		pool.execute(task);
+		final int discarded = pool.shutdownNow().size();
+		assertTrue(pool.awaitTermination(1L, TimeUnit.SECONDS));
+		assertEquals(discarded + pool.getRunTime().getCount(), 2L);
+		assertStopped(pool, threads);
+	}
+
+	/**
+	 * The core size cannot be set from outside.
+	 */
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void core() {
+		AdaptiveThreadPool.builder().get().setCorePoolSize(2);
+	}
+
+	/**
+	 * Tasks are rejected when the pool is OFF.
+	 */
+	@Test(expectedExceptions = RejectedExecutionException.class)
+	public void off() {
+		AdaptiveThreadPool.builder().get().execute(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+}
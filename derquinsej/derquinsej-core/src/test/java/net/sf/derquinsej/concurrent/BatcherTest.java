@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Tests for Batcher.
+ * @author Andres Rodriguez
+ */
+public class BatcherTest {
+	private static final int THREADS = 4;
+	private static final int ITEMS = 10000;
+	private static final int SIZE = 64;
+
+	private static final class Collector implements Batcher.Handler<Integer> {
+		final List<Integer> items = Collections.synchronizedList(Lists.<Integer> newArrayList());
+		final AtomicInteger batches = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+
+		public void handle(List<? extends Integer> batch) throws Exception {
+			batches.incrementAndGet();
+			if (batch.size() > max.get()) {
+				max.set(batch.size());
+			}
+			items.addAll(batch);
+		}
+	}
+
+	/**
+	 * Concurrent producers, drain on stop.
+	 */
+	@Test
+	public void producers() throws Exception {
+		final Collector c = new Collector();
+		final Batcher<Integer> b = Batcher.create(c, SIZE, 5L, TimeUnit.MILLISECONDS);
+		b.start();
+		final CountDownLatch latch = new CountDownLatch(THREADS);
+		final long t0 = System.nanoTime();
+		for (int i = 0; i < THREADS; i++) {
+			final int base = i * ITEMS;
+			new Thread() {
+				public void run() {
+					for (int j = 0; j < ITEMS; j++) {
+						b.submit(base + j);
+					}
+					latch.countDown();
+				}
+			}.start();
+		}
+		latch.await();
+		b.stop();
+		final long t = System.nanoTime() - t0;
+		assertEquals(b.getSupport().getStatus(), ActiveObjectStatus.OFF);
+		assertEquals(c.items.size(), THREADS * ITEMS);
+		assertEquals(b.getPending(), 0);
+		assertTrue(c.max.get() <= SIZE);
+		System.out.printf("Batcher: %d items in %d batches, %.1f ns/item\n", c.items.size(), c.batches.get(), (double) t
+				/ c.items.size());
+	}
+
+	/**
+	 * Time-triggered flush.
+	 */
+	@Test
+	public void delay() throws Exception {
+		final Collector c = new Collector();
+		final Batcher<Integer> b = Batcher.create(c, SIZE, 10L, TimeUnit.MILLISECONDS);
+		b.start();
+		final ListenableFuture<Void> f = b.submit(1);
+		f.get(1L, TimeUnit.SECONDS);
+		assertEquals(c.items, Lists.newArrayList(1));
+		assertEquals(c.batches.get(), 1);
+		b.stop();
+	}
+
+	/**
+	 * Size-triggered flush.
+	 */
+	@Test
+	public void size() throws Exception {
+		final Collector c = new Collector();
+		final Batcher<Integer> b = Batcher.create(c, 3, 1L, TimeUnit.HOURS);
+		b.start();
+		b.submit(1);
+		b.submit(2);
+		b.submit(3).get(1L, TimeUnit.SECONDS);
+		assertEquals(c.batches.get(), 1);
+		assertEquals(c.items.size(), 3);
+		final ListenableFuture<Void> f = b.submit(4);
+		b.stop();
+		assertTrue(f.isDone());
+		assertEquals(c.batches.get(), 2);
+	}
+
+	/**
+	 * Handler failure.
+	 */
+	@Test
+	public void failure() throws Exception {
+		final Batcher<Integer> b = Batcher.create(new Batcher.Handler<Integer>() {
+			public void handle(List<? extends Integer> batch) throws Exception {
+				throw new IllegalStateException();
+			}
+		}, 2, 1L, TimeUnit.HOURS);
+		b.start();
+		final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+		futures.add(b.submit(1));
+		futures.add(b.submit(2));
+		for (ListenableFuture<Void> f : futures) {
+			try {
+				f.get(1L, TimeUnit.SECONDS);
+				throw new AssertionError();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+		b.stop();
+	}
+
+	/**
+	 * Submission when not started.
+	 */
+	@Test(expectedExceptions = RejectedExecutionException.class)
+	public void off() {
+		Batcher.create(new Collector(), 2, 1L, TimeUnit.SECONDS).submit(1);
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import net.sf.derquinsej.stats.Timings;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests for Hedger.
+ * @author Andres Rodriguez
+ */
+public class HedgerTest {
+	private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+	@AfterClass
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private static Callable<String> replica(final String name, final long sleep, final CountDownLatch interrupted) {
+		return new Callable<String>() {
+			public String call() throws Exception {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					if (interrupted != null) {
+						interrupted.countDown();
+					}
+					throw e;
+				}
+				return name;
+			}
+		};
+	}
+
+	private static Callable<String> failing() {
+		return new Callable<String>() {
+			public String call() throws Exception {
+				throw new IllegalStateException();
+			}
+		};
+	}
+
+	/**
+	 * Fast primary, no hedging.
+	 */
+	@Test
+	public void fast() throws Exception {
+		final Hedger h = Hedger.create(executor, 0.95, 50L, 500L, TimeUnit.MILLISECONDS);
+		final List<Callable<String>> calls = ImmutableList.of(replica("A", 0L, null), replica("B", 0L, null));
+		for (int i = 0; i < 20; i++) {
+			assertEquals(h.call(calls), "A");
+		}
+		assertEquals(h.getRequests(), 20L);
+		assertEquals(h.getHedges(), 0L);
+		assertTrue(h.getDelay(TimeUnit.MILLISECONDS) < 500L);
+		System.out.println(h);
+	}
+
+	/**
+	 * Slow primary, the hedged call wins and the primary is cancelled.
+	 */
+	@Test
+	public void slow() throws Exception {
+		final Hedger h = Hedger.create(executor, 0.95, 10L, 10L, TimeUnit.MILLISECONDS);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final List<Callable<String>> calls = ImmutableList.of(replica("A", 10000L, interrupted),
+				replica("B", 0L, null));
+		assertEquals(h.call(calls), "B");
+		assertTrue(interrupted.await(1L, TimeUnit.SECONDS));
+		assertEquals(h.getHedges(), 1L);
+		assertEquals(h.getHedgeRate(), 1.0);
+	}
+
+	/**
+	 * Failed primary, immediate failover.
+	 */
+	@Test
+	public void failover() throws Exception {
+		final Hedger h = Hedger.create(executor, 0.95, 10L, 10L, TimeUnit.SECONDS);
+		final List<Callable<String>> calls = ImmutableList.of(failing(), replica("B", 0L, null));
+		assertEquals(h.submit(calls).get(1L, TimeUnit.SECONDS), "B");
+		assertEquals(h.getFailovers(), 1L);
+		assertEquals(h.getHedges(), 0L);
+	}
+
+	/**
+	 * Every call fails.
+	 */
+	@Test
+	public void failure() throws Exception {
+		final Hedger h = Hedger.create(executor, 0.95, 1L, 1L, TimeUnit.MILLISECONDS);
+		final List<Callable<String>> calls = ImmutableList.of(failing(), failing());
+		try {
+			h.call(calls);
+			throw new AssertionError();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/**
+	 * Rejected calls fail the request.
+	 */
+	@Test
+	public void rejected() throws Exception {
+		final ScheduledExecutorService stopped = Executors.newSingleThreadScheduledExecutor();
+		stopped.shutdown();
+		final Hedger h = Hedger.create(stopped, 0.95, 1L, 1L, TimeUnit.MILLISECONDS);
+		try {
+			h.submit(ImmutableList.of(replica("A", 0L, null))).get(1L, TimeUnit.SECONDS);
+			throw new AssertionError();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	/**
+	 * Separate timer: hedges are scheduled there, and a rejected hedge leaves
+	 * the call in flight to answer.
+	 */
+	@Test
+	public void timer() throws Exception {
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+		try {
+			final Hedger h = Hedger.create(pool, timer, Timings.createAtomic(TimeUnit.MICROSECONDS), 0.95, 10L,
+					10L, TimeUnit.MILLISECONDS);
+			final List<Callable<String>> calls = ImmutableList.of(replica("A", 10000L, null), replica("B", 0L, null));
+			assertEquals(h.call(calls), "B");
+			assertEquals(h.getHedges(), 1L);
+			timer.shutdown();
+			assertEquals(h.call(ImmutableList.of(replica("A", 50L, null), replica("B", 0L, null))), "A");
+			assertEquals(h.getHedges(), 1L);
+		} finally {
+			pool.shutdownNow();
+			timer.shutdownNow();
+		}
+	}
+
+	/**
+	 * Executor that rejects only the second submission.
+	 */
+	private static ExecutorService rejectingSecond() {
+		final AtomicInteger submissions = new AtomicInteger();
+		return new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+			@Override
+			public void execute(Runnable command) {
+				if (submissions.incrementAndGet() == 2) {
+					throw new RejectedExecutionException();
+				}
+				super.execute(command);
+			}
+		};
+	}
+
+	/**
+	 * A rejected hedge leaves the primary in flight, and the request fails
+	 * only when the primary fails as well.
+	 */
+	@Test
+	public void rejectedHedge() throws Exception {
+		final ExecutorService pool = rejectingSecond();
+		try {
+			final Hedger h = Hedger.create(pool, executor, Timings.createAtomic(TimeUnit.MICROSECONDS), 0.95, 10L,
+					10L, TimeUnit.MILLISECONDS);
+			assertEquals(h.call(ImmutableList.of(replica("A", 50L, null), replica("B", 0L, null))), "A");
+			assertEquals(h.getHedges(), 1L);
+			assertEquals(h.getFailovers(), 0L);
+		} finally {
+			pool.shutdownNow();
+		}
+		final ExecutorService failing = rejectingSecond();
+		try {
+			final Hedger h = Hedger.create(failing, executor, Timings.createAtomic(TimeUnit.MICROSECONDS), 0.95,
+					10L, 10L, TimeUnit.MILLISECONDS);
+			final Callable<String> slowFailure = new Callable<String>() {
+				public String call() throws Exception {
+					Thread.sleep(50L);
+					throw new IllegalStateException();
+				}
+			};
+			try {
+				h.call(ImmutableList.of(slowFailure, replica("B", 0L, null)));
+				throw new AssertionError();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		} finally {
+			failing.shutdownNow();
+		}
+	}
+
+	/**
+	 * Calls that answer after losing the race are added to the timing.
+	 */
+	@Test
+	public void losers() throws Exception {
+		final Hedger h = Hedger.create(executor, 0.95, 10L, 10L, TimeUnit.MILLISECONDS);
+		final Callable<String> stubborn = new Callable<String>() {
+			public String call() throws Exception {
+				Uninterruptibles.sleepUninterruptibly(50L, TimeUnit.MILLISECONDS);
+				return "A";
+			}
+		};
+		assertEquals(h.call(ImmutableList.of(stubborn, replica("B", 0L, null))), "B");
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1L);
+		while (h.getTiming().get().getCount() < 2 && System.nanoTime() < deadline) {
+			Thread.sleep(1L);
+		}
+		assertEquals(h.getTiming().get().getCount(), 2L);
+		assertTrue(h.getTiming().get().getMax() >= TimeUnit.MILLISECONDS.toMicros(40L));
+	}
+}
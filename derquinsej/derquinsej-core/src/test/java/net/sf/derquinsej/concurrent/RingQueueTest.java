@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests and throughput benchmark for RingQueue.
+ * @author Andres Rodriguez
+ */
+public class RingQueueTest {
+	private static final int CAPACITY = 1024;
+	private static final int ITEMS = 2000000;
+	private static final Integer ITEM = 1;
+
+	private void basic(RingQueue<Integer> q) {
+		assertEquals(q.getCapacity(), 8);
+		assertTrue(q.isEmpty());
+		assertNull(q.poll());
+		for (int i = 0; i < 8; i++) {
+			assertTrue(q.offer(i));
+		}
+		assertFalse(q.offer(8));
+		assertEquals(q.size(), 8);
+		assertEquals(q.peek(), Integer.valueOf(0));
+		assertEquals(q.poll(), Integer.valueOf(0));
+		assertTrue(q.offer(8));
+		final int[] sum = new int[1];
+		assertEquals(q.drain(new RingQueue.Consumer<Integer>() {
+			public void accept(Integer element) {
+				sum[0] += element;
+			}
+		}, 5), 5);
+		assertEquals(sum[0], 1 + 2 + 3 + 4 + 5);
+		assertEquals(q.size(), 3);
+		assertEquals(q.poll(), Integer.valueOf(6));
+	}
+
+	/**
+	 * Single-threaded behavior.
+	 */
+	@Test
+	public void basic() {
+		basic(RingQueue.<Integer> spsc(5));
+		basic(RingQueue.<Integer> mpsc(8));
+	}
+
+	/**
+	 * Moves items from the producers to a consumer.
+	 * @return Time per item (ns).
+	 */
+	private double handoff(final Queue<Integer> q, int producers) throws InterruptedException {
+		final int perProducer = ITEMS / producers;
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int p = 0; p < producers; p++) {
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < perProducer; i++) {
+						while (!q.offer(ITEM)) {
+							Thread.yield();
+						}
+					}
+				}
+			}.start();
+		}
+		final int total = perProducer * producers;
+		final int[] received = new int[1];
+		final RingQueue.Consumer<Integer> consumer = new RingQueue.Consumer<Integer>() {
+			public void accept(Integer element) {
+				received[0] += element;
+			}
+		};
+		final long t0 = System.nanoTime();
+		start.countDown();
+		while (received[0] < total) {
+			if (q instanceof RingQueue) {
+				if (((RingQueue<Integer>) q).drain(consumer, 256) == 0) {
+					Thread.yield();
+				}
+			} else if (q.poll() != null) {
+				received[0]++;
+			} else {
+				Thread.yield();
+			}
+		}
+		final double t = (double) (System.nanoTime() - t0) / total;
+		assertEquals(received[0], total);
+		assertTrue(q.isEmpty());
+		return t;
+	}
+
+	private void benchmark(String name, Queue<Integer> q, int producers) throws InterruptedException {
+		handoff(q, producers); // warm-up
+		System.out.printf("%s (%d producers): %.1f ns/item\n", name, producers, handoff(q, producers));
+	}
+
+	/**
+	 * Throughput comparison.
+	 */
+	@Test
+	public void throughput() throws InterruptedException {
+		benchmark("SPSC ring", RingQueue.<Integer> spsc(CAPACITY), 1);
+		benchmark("MPSC ring", RingQueue.<Integer> mpsc(CAPACITY), 1);
+		benchmark("ArrayBlockingQueue", new ArrayBlockingQueue<Integer>(CAPACITY), 1);
+		benchmark("ConcurrentLinkedQueue", new ConcurrentLinkedQueue<Integer>(), 1);
+		benchmark("MPSC ring", RingQueue.<Integer> mpsc(CAPACITY), 4);
+		benchmark("ArrayBlockingQueue", new ArrayBlockingQueue<Integer>(CAPACITY), 4);
+		benchmark("ConcurrentLinkedQueue", new ConcurrentLinkedQueue<Integer>(), 4);
+	}
+}
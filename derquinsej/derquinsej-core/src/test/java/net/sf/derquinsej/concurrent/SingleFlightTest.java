@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Tests for SingleFlight.
+ * @author Andres Rodriguez
+ */
+public class SingleFlightTest {
+	/**
+	 * Concurrent calls are coalesced.
+	 */
+	@Test
+	public void coalesce() throws Exception {
+		final SingleFlight<String, Integer> sf = SingleFlight.create();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final Callable<Integer> loader = new Callable<Integer>() {
+			public Integer call() throws Exception {
+				release.await();
+				return loads.incrementAndGet();
+			}
+		};
+		final int n = 20;
+		final ExecutorService pool = Executors.newFixedThreadPool(n);
+		try {
+			final List<Future<Integer>> results = Lists.newArrayList();
+			for (int i = 0; i < n; i++) {
+				results.add(pool.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						return sf.get("key", loader);
+					}
+				}));
+			}
+			while (sf.getCalls() < n) {
+				Thread.sleep(1L);
+			}
+			final ListenableFuture<Integer> async = sf.getAsync("key", loader, pool);
+			release.countDown();
+			for (Future<Integer> f : results) {
+				assertEquals(f.get(), Integer.valueOf(1));
+			}
+			assertEquals(async.get(), Integer.valueOf(1));
+			assertEquals(sf.getLoads(), 1L);
+			assertEquals(sf.getCoalesced(), (long) n);
+			assertEquals(sf.getInFlight(), 0);
+			assertEquals(sf.get("key", loader), Integer.valueOf(2));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Failures are propagated.
+	 */
+	@Test
+	public void failure() {
+		final SingleFlight<String, Integer> sf = SingleFlight.create();
+		try {
+			sf.get("key", new Callable<Integer>() {
+				public Integer call() throws Exception {
+					throw new IllegalStateException();
+				}
+			});
+			throw new AssertionError();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertEquals(sf.getInFlight(), 0);
+	}
+
+	/**
+	 * Loaders of a subtype of the value type are accepted.
+	 */
+	@Test
+	public void subtype() throws Exception {
+		final SingleFlight<String, Number> sf = SingleFlight.create();
+		final Callable<Integer> loader = new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return 1;
+			}
+		};
+		assertEquals(sf.get("key", loader), Integer.valueOf(1));
+		assertEquals(sf.getAsync("key", loader, MoreExecutors.directExecutor()).get(), Integer.valueOf(1));
+		assertEquals(sf.getLoads(), 2L);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests for StripedLocks.
+ * @author Andres Rodriguez
+ */
+public class StripedLocksTest {
+	private static final int THREADS = 4;
+	private static final int ITERATIONS = 20000;
+	private static final int KEYS = 8;
+
+	/** Non-atomic per-key counters, protected by the locks. */
+	private final int[] values = new int[KEYS];
+
+	private void exclusion(final StripedLocks<Integer> locks) throws Exception {
+		for (int i = 0; i < KEYS; i++) {
+			values[i] = 0;
+		}
+		final CountDownLatch latch = new CountDownLatch(THREADS);
+		final long t0 = System.nanoTime();
+		for (int t = 0; t < THREADS; t++) {
+			new Thread() {
+				public void run() {
+					for (int i = 0; i < ITERATIONS; i++) {
+						final int key = i % KEYS;
+						locks.withLock(key, new Runnable() {
+							public void run() {
+								values[key]++;
+							}
+						});
+					}
+					latch.countDown();
+				}
+			}.start();
+		}
+		latch.await();
+		final long t = System.nanoTime() - t0;
+		for (int i = 0; i < KEYS; i++) {
+			assertEquals(values[i], THREADS * ITERATIONS / KEYS);
+		}
+		assertEquals(locks.getAcquisitions(), (long) THREADS * ITERATIONS);
+		assertTrue(locks.getContended() <= locks.getAcquisitions());
+		System.out.printf("%s: %.1f ns/acquisition\n", locks, (double) t / (THREADS * ITERATIONS));
+	}
+
+	/**
+	 * Striped mode.
+	 */
+	@Test
+	public void striped() throws Exception {
+		final StripedLocks<Integer> locks = StripedLocks.striped(5);
+		assertEquals(locks.getStripes(), 8);
+		assertSame(locks.get(3), locks.get(3));
+		exclusion(locks);
+		long sum = 0L;
+		for (int i = 0; i < locks.getStripes(); i++) {
+			sum += locks.getAcquisitions(i);
+		}
+		assertEquals(sum, locks.getAcquisitions());
+	}
+
+	/**
+	 * Weak mode.
+	 */
+	@Test
+	public void weak() throws Exception {
+		final StripedLocks<Integer> locks = StripedLocks.weak();
+		assertSame(locks.get(3), locks.get(3));
+		exclusion(locks);
+		assertEquals(locks.withLock(1, new Callable<String>() {
+			public String call() throws Exception {
+				return "done";
+			}
+		}), "done");
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests for TokenBucket.
+ * @author Andres Rodriguez
+ */
+public class TokenBucketTest {
+	/**
+	 * Burst capacity.
+	 */
+	@Test
+	public void burst() {
+		final TokenBucket b = TokenBucket.create(10.0, 5);
+		assertEquals(b.getAvailable(), 5);
+		assertTrue(b.tryAcquire(3));
+		assertTrue(b.tryAcquire(2));
+		assertFalse(b.tryAcquire());
+	}
+
+	/**
+	 * Spans that cannot be represented are rejected.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void overflow() {
+		TokenBucket.create(0.001, 10000000);
+	}
+
+	/**
+	 * Low rates within range.
+	 */
+	@Test
+	public void slow() {
+		final TokenBucket b = TokenBucket.create(0.001, 1000);
+		assertEquals(b.getAvailable(), 1000);
+		assertTrue(b.tryAcquire(1000));
+		assertFalse(b.tryAcquire());
+	}
+
+	/**
+	 * Immediate acquisitions over the burst capacity are rejected.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void overBurst() {
+		TokenBucket.create(10.0, 5).tryAcquire(6);
+	}
+
+	/**
+	 * Timed acquisition waits for the deficit.
+	 */
+	@Test
+	public void timed() {
+		final TokenBucket b = TokenBucket.create(100.0, 1);
+		assertTrue(b.tryAcquire());
+		assertFalse(b.tryAcquire(1, 1L, TimeUnit.MILLISECONDS));
+		final long t0 = System.nanoTime();
+		assertTrue(b.tryAcquire(1, 100L, TimeUnit.MILLISECONDS));
+		final long waited = System.nanoTime() - t0;
+		assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(5L), Long.toString(waited));
+		assertTrue(b.acquire(2) > 0L);
+	}
+
+	/**
+	 * Throughput.
+	 */
+	@Test
+	public void throughput() throws InterruptedException {
+		final TokenBucket b = TokenBucket.create(1e9, 1000000);
+		final int n = 4;
+		final int per = 1000000;
+		final Thread[] threads = new Thread[n];
+		final long t0 = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < per; j++) {
+						b.tryAcquire();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		final long duration = System.nanoTime() - t0;
+		System.out.println(String.format("Token bucket: %d ns pu", duration / (n * per)));
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for bulk UUID generation.
+ * @author Andres Rodriguez
+ */
+public class BulkUUIDGenerationTest {
+	private static final int N = 100000;
+
+	private void check(String name, BulkUUIDGenerator g, int version) {
+		// Warm-up
+		g.get(N);
+		for (int i = 0; i < N; i++) {
+			g.get();
+		}
+		final Set<UUID> all = Sets.newHashSetWithExpectedSize(3 * N);
+		final UUID[] singles = new UUID[N];
+		long t0 = System.nanoTime();
+		for (int i = 0; i < N; i++) {
+			singles[i] = g.get();
+		}
+		final long single = System.nanoTime() - t0;
+		Collections.addAll(all, singles);
+		t0 = System.nanoTime();
+		final long[] msb = new long[N];
+		final long[] lsb = new long[N];
+		g.fill(msb, lsb);
+		final long bulk = System.nanoTime() - t0;
+		for (int i = 0; i < N; i++) {
+			all.add(new UUID(msb[i], lsb[i]));
+		}
+		final List<UUID> list = g.get(N);
+		assertEquals(list.size(), N);
+		all.addAll(list);
+		assertEquals(all.size(), 3 * N);
+		for (UUID u : all) {
+			assertEquals(u.version(), version);
+			assertEquals(u.variant(), 2);
+		}
+		System.out.printf("%s: single %.1f ns/uuid, bulk %.1f ns/uuid\n", name, (double) single / N, (double) bulk
+				/ N);
+	}
+
+	/**
+	 * Uniqueness and cost of bulk generation.
+	 */
+	@Test
+	public void bulk() {
+		check("Synchronized", new TimeBasedUUIDGenerator(), 1);
+		check("Lock-free", new LockFreeTimeBasedUUIDGenerator(), 1);
+		check("Partitioned", new PartitionedTimeBasedUUIDGenerator(2), 1);
+		check("Random", new RandomUUIDGenerator(), 4);
+		check("Random, fast", new RandomUUIDGenerator(EntropySources.fast()), 4);
+		check("Lock-free, fast", new LockFreeTimeBasedUUIDGenerator(null, 0L, 0, EntropySources.fast()), 1);
+		check("Safe", new SafeUUIDGenerator(new LockFreeTimeBasedUUIDGenerator()), 1);
+		check("Safe, plain", new SafeUUIDGenerator(new UUIDGenerator() {
+			private final UUIDGenerator g = new TimeBasedUUIDGenerator();
+
+			public UUID get() {
+				return g.get();
+			}
+		}), 1);
+	}
+
+	/**
+	 * Single and bulk fallback generation.
+	 */
+	@Test
+	public void fallback() {
+		final SafeUUIDGenerator g = new SafeUUIDGenerator(new UUIDGenerator() {
+			public UUID get() {
+				throw new IllegalStateException();
+			}
+		});
+		assertEquals(g.get().version(), 4);
+		for (UUID u : g.get(100)) {
+			assertEquals(u.version(), 4);
+		}
+	}
+
+	/**
+	 * Empty and mismatched arrays.
+	 */
+	@Test
+	public void arguments() {
+		final BulkUUIDGenerator g = new TimeBasedUUIDGenerator();
+		assertEquals(g.get(0).size(), 0);
+		g.fill(new long[0], new long[0]);
+		try {
+			g.fill(new long[1], new long[2]);
+			throw new AssertionError();
+		} catch (IllegalArgumentException e) {
+			// ok
+		}
+	}
+}
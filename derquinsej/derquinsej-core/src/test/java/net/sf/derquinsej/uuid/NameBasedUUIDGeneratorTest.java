@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * Tests for NameBasedUUIDGenerator.
+ * @author Andres Rodriguez
+ */
+public class NameBasedUUIDGeneratorTest {
+	private static final int N = 200000;
+
+	/**
+	 * RFC 4122 style known values.
+	 */
+	@Test
+	public void known() {
+		final NameBasedUUIDGenerator v3 = NameBasedUUIDGenerator.md5(NameBasedUUIDGenerator.NAMESPACE_DNS);
+		final NameBasedUUIDGenerator v5 = NameBasedUUIDGenerator.sha1(NameBasedUUIDGenerator.NAMESPACE_DNS);
+		assertEquals(v3.get("python.org"), UUID.fromString("6fa459ea-ee8a-3ca4-894e-db77e160355e"));
+		assertEquals(v5.get("python.org"), UUID.fromString("886313e1-3b8a-5372-9b90-0c9aee199e5d"));
+		assertEquals(v3.get("python.org").version(), 3);
+		assertEquals(v5.get("python.org").version(), 5);
+	}
+
+	/**
+	 * Without namespace, version 3 UUIDs are the ones of the JDK.
+	 */
+	@Test
+	public void jdk() throws UnsupportedEncodingException {
+		final NameBasedUUIDGenerator g = NameBasedUUIDGenerator.md5(null);
+		for (int i = 0; i < 1000; i++) {
+			final byte[] name = ("name-" + i).getBytes("UTF-8");
+			assertEquals(g.get(name), UUID.nameUUIDFromBytes(name));
+		}
+	}
+
+	/**
+	 * Every input form gives the same UUID.
+	 */
+	@Test
+	public void forms() throws UnsupportedEncodingException {
+		final NameBasedUUIDGenerator g = NameBasedUUIDGenerator.sha1(NameBasedUUIDGenerator.NAMESPACE_URL);
+		final String[] names = { "", "a", "ñandú", "€ uro", "😀 pair", "bad \ud83d surrogate",
+				"bad \ude00 surrogate", Strings.repeat("€😀x", 1000) };
+		for (String name : names) {
+			final byte[] bytes = name.getBytes("UTF-8");
+			final UUID expected = g.get(bytes);
+			assertEquals(g.get(name), expected, name);
+			assertEquals(g.get(new StringBuilder(name)), expected, name);
+			assertEquals(g.get(ByteBuffer.wrap(bytes)), expected, name);
+			final byte[] padded = new byte[bytes.length + 4];
+			System.arraycopy(bytes, 0, padded, 2, bytes.length);
+			assertEquals(g.get(padded, 2, bytes.length), expected, name);
+		}
+	}
+
+	/**
+	 * Throughput compared with the JDK.
+	 */
+	@Test
+	public void throughput() throws UnsupportedEncodingException {
+		final NameBasedUUIDGenerator g = NameBasedUUIDGenerator.md5(null);
+		final String[] names = new String[1000];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "entity-key-" + i;
+		}
+		int h = 0;
+		for (int r = 0; r < 3; r++) {
+			final long t0 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				h += UUID.nameUUIDFromBytes(names[i % names.length].getBytes("UTF-8")).hashCode();
+			}
+			final long t1 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				h += g.get(names[i % names.length]).hashCode();
+			}
+			final long t2 = System.nanoTime();
+			System.out.printf("nameUUIDFromBytes %.1f ns/uuid, NameBasedUUIDGenerator %.1f ns/uuid (%d)\n",
+					(double) (t1 - t0) / N, (double) (t2 - t1) / N, h & 1);
+		}
+	}
+}
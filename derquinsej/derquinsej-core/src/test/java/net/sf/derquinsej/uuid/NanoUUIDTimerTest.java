@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests for NanoUUIDTimer.
+ * @author Andres Rodriguez
+ */
+public class NanoUUIDTimerTest {
+	private static final int N = 1000000;
+
+	/**
+	 * The timer is close to the system clock and provides more distinct values.
+	 */
+	@Test
+	public void resolution() {
+		final NanoUUIDTimer timer = new NanoUUIDTimer(10L, TimeUnit.MILLISECONDS);
+		final UUIDTimer system = SystemUUIDTimer.INSTANCE;
+		int nanoValues = 0;
+		int systemValues = 0;
+		long lastNano = 0L;
+		long lastSystem = 0L;
+		for (int i = 0; i < N; i++) {
+			final long s0 = system.getCurrentTime();
+			final long t = timer.getCurrentTime();
+			final long s = system.getCurrentTime();
+			if (t != lastNano) {
+				nanoValues++;
+				lastNano = t;
+			}
+			if (s != lastSystem) {
+				systemValues++;
+				lastSystem = s;
+			}
+			// Within the system clock readings, plus granularity and tolerance.
+			assertTrue(t > s0 - 40000L && t < s + 40000L, "Drift: " + (t - s));
+		}
+		System.out.printf("Distinct values: nano %d, system %d, reanchors %d\n", nanoValues, systemValues, timer
+				.getReanchors());
+		assertTrue(nanoValues > systemValues);
+	}
+
+	/**
+	 * The timer does not go backwards unless re-anchored.
+	 */
+	@Test
+	public void monotonic() {
+		final NanoUUIDTimer timer = new NanoUUIDTimer(1L, TimeUnit.HOURS);
+		long last = timer.getCurrentTime();
+		for (int i = 0; i < N; i++) {
+			final long t = timer.getCurrentTime();
+			assertTrue(t >= last);
+			last = t;
+		}
+	}
+
+	/**
+	 * Without drift, checking every millisecond does not re-anchor the timer.
+	 */
+	@Test
+	public void stable() {
+		final NanoUUIDTimer timer = new NanoUUIDTimer(1L, TimeUnit.MILLISECONDS);
+		final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200L);
+		while (System.nanoTime() - end < 0) {
+			timer.getCurrentTime();
+		}
+		System.out.printf("Reanchors: %d\n", timer.getReanchors());
+		// Only a thread preempted while checking may cause one.
+		assertTrue(timer.getReanchors() < 10L);
+	}
+}
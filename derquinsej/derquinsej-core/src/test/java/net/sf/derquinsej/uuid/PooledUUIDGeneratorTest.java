@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for PooledUUIDGenerator.
+ * @author Andres Rodriguez
+ */
+public class PooledUUIDGeneratorTest {
+	private static final int N = 100000;
+
+	private static void awaitAvailable(PooledUUIDGenerator g, int n) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+		while (g.getAvailable() < n && System.nanoTime() < deadline) {
+			Thread.sleep(5L);
+		}
+		assertTrue(g.getAvailable() >= n);
+	}
+
+	/**
+	 * UUIDs are served from the pool once it is filled.
+	 */
+	@Test
+	public void hits() throws InterruptedException {
+		final PooledUUIDGenerator g = new PooledUUIDGenerator(new TimeBasedUUIDGenerator(), 1000, 4);
+		assertEquals(g.getAvailable(), 0);
+		// Inline while OFF.
+		g.get();
+		assertEquals(g.getMisses(), 1L);
+		g.start();
+		awaitAvailable(g, 4000);
+		for (int i = 0; i < 3000; i++) {
+			g.get();
+		}
+		assertEquals(g.getHits(), 3000L);
+		assertEquals(g.getMisses(), 1L);
+		g.stop();
+		// Ready UUIDs are still served.
+		g.get();
+		assertEquals(g.getHits(), 3001L);
+	}
+
+	/**
+	 * Every served UUID is unique, whether from the pool or inline.
+	 */
+	@Test
+	public void unique() throws InterruptedException {
+		final PooledUUIDGenerator g = new PooledUUIDGenerator(new LockFreeTimeBasedUUIDGenerator(), 256, 4);
+		g.start();
+		final Set<UUID> all = Sets.newHashSetWithExpectedSize(4 * N);
+		final Thread[] threads = new Thread[4];
+		final UUID[][] results = new UUID[threads.length][N];
+		for (int t = 0; t < threads.length; t++) {
+			final UUID[] result = results[t];
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < N; i++) {
+						result[i] = g.get();
+					}
+				}
+			};
+		}
+		final long t0 = System.nanoTime();
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		final long t = System.nanoTime() - t0;
+		g.stop();
+		for (UUID[] result : results) {
+			for (UUID u : result) {
+				all.add(u);
+			}
+		}
+		assertEquals(all.size(), threads.length * N);
+		assertEquals(g.getHits() + g.getMisses(), threads.length * N);
+		System.out.printf("Pooled: %.1f ns/uuid, %s\n", (double) t / (threads.length * N), g);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for time based UUID generators.
+ * @author Andres Rodriguez
+ */
+public class TimeBasedUUIDGeneratorTest {
+	private static final int THREADS = 8;
+	private static final int N = 50000;
+
+	private void check(String name, final UUIDGenerator g) throws InterruptedException {
+		check(name, g, 1);
+	}
+
+	private void check(String name, final UUIDGenerator g, int version) throws InterruptedException {
+		final List<List<UUID>> results = Lists.newArrayList();
+		final List<Thread> threads = Lists.newArrayList();
+		for (int t = 0; t < THREADS; t++) {
+			final List<UUID> list = Lists.newArrayListWithCapacity(N);
+			results.add(list);
+			threads.add(new Thread() {
+				public void run() {
+					for (int i = 0; i < N; i++) {
+						list.add(g.get());
+					}
+				}
+			});
+		}
+		final long t0 = System.nanoTime();
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		final long t = System.nanoTime() - t0;
+		final Set<UUID> all = Sets.newHashSetWithExpectedSize(THREADS * N);
+		for (List<UUID> list : results) {
+			for (UUID u : list) {
+				assertEquals(u.version(), version);
+				assertEquals(u.variant(), 2);
+				all.add(u);
+			}
+		}
+		assertEquals(all.size(), THREADS * N);
+		System.out.printf("%s: %.1f ns/uuid\n", name, (double) t / (THREADS * N));
+	}
+
+	/**
+	 * Uniqueness and throughput, random node and random UUIDs.
+	 */
+	@Test
+	public void random() throws InterruptedException {
+		check("Synchronized, random node", new TimeBasedUUIDGenerator());
+		check("Lock-free, random node", new LockFreeTimeBasedUUIDGenerator());
+		check("Random", new RandomUUIDGenerator(), 4);
+		check("Random, fast", new RandomUUIDGenerator(EntropySources.fast()), 4);
+		check("UUID.randomUUID", new AbstractUUIDGenerator() {
+			public UUID get() {
+				return UUID.randomUUID();
+			}
+		}, 4);
+	}
+
+	/**
+	 * Uniqueness and throughput, fixed node.
+	 */
+	@Test
+	public void fixed() throws InterruptedException {
+		check("Synchronized, fixed node", new TimeBasedUUIDGenerator(0x123456789AL, 47));
+		check("Lock-free, fixed node", new LockFreeTimeBasedUUIDGenerator(0x123456789AL, 47));
+	}
+
+	/**
+	 * Uniqueness and throughput, high resolution timer.
+	 */
+	@Test
+	public void nano() throws InterruptedException {
+		check("Synchronized, nano timer", new TimeBasedUUIDGenerator(NanoUUIDTimer.INSTANCE, 0x123456789AL, 47));
+		check("Lock-free, nano timer", new LockFreeTimeBasedUUIDGenerator(NanoUUIDTimer.INSTANCE, 0x123456789AL, 47));
+	}
+
+	/**
+	 * Uniqueness and throughput, time ordered.
+	 */
+	@Test
+	public void ordered() throws InterruptedException {
+		check("Time ordered", new TimeOrderedUUIDGenerator(), 7);
+		check("Time ordered, fast", new TimeOrderedUUIDGenerator(null, EntropySources.fast()), 7);
+	}
+
+	/**
+	 * Uniqueness and throughput, partitioned.
+	 */
+	@Test
+	public void partitioned() throws InterruptedException {
+		final PartitionedTimeBasedUUIDGenerator g = new PartitionedTimeBasedUUIDGenerator(0x5AL, 8, 3);
+		assertEquals(g.getPartitions(), 8);
+		assertEquals(g.get().node() & 0xFFL, 0x5AL);
+		check("Partitioned, 8 partitions", g);
+		check("Partitioned, 2 partitions", new PartitionedTimeBasedUUIDGenerator(1));
+	}
+}
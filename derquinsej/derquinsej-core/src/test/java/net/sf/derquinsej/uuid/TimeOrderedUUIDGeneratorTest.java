@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests for TimeOrderedUUIDGenerator.
+ * @author Andres Rodriguez
+ */
+public class TimeOrderedUUIDGeneratorTest {
+	private static final int N = 100000;
+
+	/**
+	 * UUIDs are increasing and their time is the system time.
+	 */
+	@Test
+	public void ordered() {
+		final TimeOrderedUUIDGenerator g = new TimeOrderedUUIDGenerator(null, EntropySources.fast());
+		final long t0 = System.currentTimeMillis();
+		UUID last = g.get();
+		for (int i = 0; i < N; i++) {
+			final UUID u = g.get();
+			assertEquals(u.version(), 7);
+			assertEquals(u.variant(), 2);
+			assertTrue(u.compareTo(last) > 0);
+			last = u;
+		}
+		final long t1 = System.currentTimeMillis();
+		final long time = TimeOrderedUUIDGenerator.getTime(last);
+		assertTrue(time >= t0);
+		// Up to 4096 UUIDs per ms without running ahead of the clock.
+		assertTrue(time <= t1 + N / 4096);
+	}
+
+	/**
+	 * Bulk generation keeps the order.
+	 */
+	@Test
+	public void bulk() {
+		final TimeOrderedUUIDGenerator g = new TimeOrderedUUIDGenerator(NanoUUIDTimer.INSTANCE);
+		UUID last = g.get();
+		for (int j = 0; j < 10; j++) {
+			final List<UUID> list = g.get(1000);
+			for (UUID u : list) {
+				assertTrue(u.compareTo(last) > 0);
+				last = u;
+			}
+		}
+	}
+
+	/**
+	 * Only version 7 UUIDs have a Unix time.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void time() {
+		TimeOrderedUUIDGenerator.getTime(UUID.randomUUID());
+	}
+}
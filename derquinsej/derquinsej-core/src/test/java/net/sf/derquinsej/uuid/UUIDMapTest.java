@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for UUIDMap and UUIDSet.
+ * @author Andres Rodriguez
+ */
+public class UUIDMapTest {
+	private static final int N = 1000000;
+
+	/** Keys from a small space, to force collisions, including the nil UUID. */
+	private static UUID key(Random r) {
+		return new UUID(r.nextInt(32), r.nextInt(32));
+	}
+
+	/**
+	 * Random operations compared with HashMap and HashSet.
+	 */
+	@Test
+	public void random() {
+		final Random r = new Random(42L);
+		final UUIDMap<Integer> map = new UUIDMap<Integer>(0);
+		final UUIDSet set = new UUIDSet(0);
+		final Map<UUID, Integer> expectedMap = Maps.newHashMap();
+		final Set<UUID> expectedSet = Sets.newHashSet();
+		for (int i = 0; i < 200000; i++) {
+			final UUID k = key(r);
+			switch (r.nextInt(4)) {
+			case 0:
+			case 1:
+				assertEquals(map.put(k, i), expectedMap.put(k, i));
+				assertEquals(set.add(k), expectedSet.add(k));
+				break;
+			case 2:
+				assertEquals(map.remove(k), expectedMap.remove(k));
+				assertEquals(set.remove(k), expectedSet.remove(k));
+				break;
+			default:
+				assertEquals(map.get(k), expectedMap.get(k));
+				assertEquals(map.containsKey(k), expectedMap.containsKey(k));
+				assertEquals(set.contains(k), expectedSet.contains(k));
+			}
+			assertEquals(map.size(), expectedMap.size());
+			assertEquals(set.size(), expectedSet.size());
+		}
+		assertEquals(map, expectedMap);
+		assertEquals(set, expectedSet);
+		assertEquals(map.hashCode(), expectedMap.hashCode());
+	}
+
+	/**
+	 * Removal while iterating returns and keeps the right elements.
+	 */
+	@Test
+	public void iteratorRemove() {
+		final Random r = new Random(7L);
+		for (int round = 0; round < 200; round++) {
+			final UUIDSet set = new UUIDSet(0);
+			final Set<UUID> expected = Sets.newHashSet();
+			for (int i = 0; i < 400; i++) {
+				final UUID k = key(r);
+				set.add(k);
+				expected.add(k);
+			}
+			final Set<UUID> before = Sets.newHashSet(expected);
+			final Set<UUID> seen = Sets.newHashSet();
+			for (Iterator<UUID> it = set.iterator(); it.hasNext();) {
+				final UUID k = it.next();
+				assertTrue(seen.add(k), "Returned twice: " + k);
+				if (r.nextBoolean()) {
+					it.remove();
+					expected.remove(k);
+				}
+			}
+			assertEquals(seen, before);
+			assertEquals(set, expected);
+		}
+	}
+
+	/**
+	 * Map entries and bits based access.
+	 */
+	@Test
+	public void entries() {
+		final UUIDMap<String> map = new UUIDMap<String>();
+		final UUID nil = new UUID(0L, 0L);
+		assertNull(map.put(nil, "nil"));
+		assertNull(map.put(1L, 2L, "a"));
+		assertNull(map.put(3L, 4L, null));
+		assertTrue(map.containsKey(3L, 4L));
+		assertEquals(map.get(new UUID(1L, 2L)), "a");
+		for (Map.Entry<UUID, String> e : map.entrySet()) {
+			e.setValue(e.getKey().toString());
+		}
+		assertEquals(map.get(0L, 0L), nil.toString());
+		assertEquals(map.get(3L, 4L), new UUID(3L, 4L).toString());
+		assertEquals(map.remove(1L, 2L), new UUID(1L, 2L).toString());
+		assertFalse(map.containsKey(1L, 2L));
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertFalse(map.containsKey(nil));
+	}
+
+	/**
+	 * Setting the value of a removed entry does not insert it again.
+	 */
+	@Test
+	public void removedEntry() {
+		final UUIDMap<String> map = new UUIDMap<String>();
+		map.put(1L, 2L, "a");
+		map.put(3L, 4L, "b");
+		for (Iterator<Map.Entry<UUID, String>> it = map.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<UUID, String> e = it.next();
+			if (e.getKey().getMostSignificantBits() == 1L) {
+				it.remove();
+				assertEquals(e.setValue("c"), "a");
+				assertEquals(e.getValue(), "c");
+			}
+		}
+		assertEquals(map.size(), 1);
+		assertFalse(map.containsKey(1L, 2L));
+		assertEquals(map.get(3L, 4L), "b");
+	}
+
+	/**
+	 * Key families with the same msb ^ lsb do not degrade to a single probe
+	 * chain.
+	 */
+	@Test(timeOut = 10000L)
+	public void symmetric() {
+		final int n = 100000;
+		final UUIDSet set = new UUIDSet();
+		for (long i = 1; i <= n; i++) {
+			assertTrue(set.add(i, i));
+			assertTrue(set.add(i, ~i));
+			assertTrue(set.add(~i, i));
+		}
+		assertEquals(set.size(), 3 * n);
+		for (long i = 1; i <= n; i++) {
+			assertTrue(set.contains(i, i));
+			assertTrue(set.contains(~i, i));
+			assertFalse(set.contains(i, i + 1));
+		}
+	}
+
+	/**
+	 * Lookup throughput compared with HashMap.
+	 */
+	@Test
+	public void throughput() {
+		final List<UUID> keys = new RandomUUIDGenerator(EntropySources.fast()).get(N);
+		final UUIDMap<Integer> map = new UUIDMap<Integer>(N);
+		final Map<UUID, Integer> hashMap = Maps.newHashMapWithExpectedSize(N);
+		final Integer value = 1;
+		for (UUID k : keys) {
+			map.put(k, value);
+			hashMap.put(k, value);
+		}
+		int h = 0;
+		for (int r = 0; r < 2; r++) {
+			final long t0 = System.nanoTime();
+			for (UUID k : keys) {
+				h += hashMap.get(new UUID(k.getMostSignificantBits(), k.getLeastSignificantBits()));
+			}
+			final long t1 = System.nanoTime();
+			for (UUID k : keys) {
+				h += map.get(k.getMostSignificantBits(), k.getLeastSignificantBits());
+			}
+			final long t2 = System.nanoTime();
+			System.out.printf("HashMap %.1f ns/get, UUIDMap %.1f ns/get (%d)\n", (double) (t1 - t0) / N,
+					(double) (t2 - t1) / N, h & 1);
+		}
+	}
+}
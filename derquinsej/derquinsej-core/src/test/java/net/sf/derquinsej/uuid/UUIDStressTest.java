@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+/**
+ * Stress and throughput harness for UUID generators. Each generator is used
+ * by a number of threads calling {@link UUIDGenerator#get()}; the UUIDs are
+ * checked for uniqueness with a {@link UUIDSet} and the throughput and, where
+ * the JVM supports it, the allocation per UUID are printed. The number of
+ * UUIDs per thread and the number of threads can be raised with the
+ * {@code uuid.stress.count} and {@code uuid.stress.threads} system properties,
+ * e.g. to generate hundreds of millions of UUIDs (memory usage is up to about
+ * 60 bytes per UUID).
+ * @author Andres Rodriguez
+ */
+public class UUIDStressTest {
+	private static final int COUNT = Integer.getInteger("uuid.stress.count", 200000);
+	private static final int THREADS = Integer.getInteger("uuid.stress.threads", 8);
+
+	/** Returns the bytes allocated by the current thread, or -1 if unknown. */
+	private static long allocated() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1L;
+	}
+
+	private void stress(String name, final UUIDGenerator g) throws InterruptedException {
+		final long[][] msb = new long[THREADS][COUNT];
+		final long[][] lsb = new long[THREADS][COUNT];
+		final long[] bytes = new long[THREADS];
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			final int index = t;
+			threads[t] = new Thread() {
+				public void run() {
+					final long[] hi = msb[index];
+					final long[] lo = lsb[index];
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					final long a0 = allocated();
+					for (int i = 0; i < COUNT; i++) {
+						final UUID u = g.get();
+						hi[i] = u.getMostSignificantBits();
+						lo[i] = u.getLeastSignificantBits();
+					}
+					final long a1 = allocated();
+					bytes[index] = a0 < 0 ? -1L : a1 - a0;
+				}
+			};
+			threads[t].start();
+		}
+		final long t0 = System.nanoTime();
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		final long elapsed = System.nanoTime() - t0;
+		final long total = (long) THREADS * COUNT;
+		final UUIDSet set = new UUIDSet((int) total);
+		long duplicates = 0L;
+		long allocation = 0L;
+		for (int t = 0; t < THREADS; t++) {
+			for (int i = 0; i < COUNT; i++) {
+				if (!set.add(msb[t][i], lsb[t][i])) {
+					duplicates++;
+				}
+			}
+			allocation += bytes[t];
+		}
+		System.out.printf("%s: %d threads, %d ids, %.0f ids/s, %s bytes/id\n", name, THREADS, total, total * 1e9
+				/ elapsed, allocation < 0 ? "?" : String.format("%.1f", (double) allocation / total));
+		assertEquals(duplicates, 0L, name + " duplicates");
+	}
+
+	@Test
+	public void timeBased() throws InterruptedException {
+		stress("TimeBasedUUIDGenerator", new TimeBasedUUIDGenerator());
+		stress("LockFreeTimeBasedUUIDGenerator", new LockFreeTimeBasedUUIDGenerator());
+	}
+
+	@Test
+	public void random() throws InterruptedException {
+		stress("RandomUUIDGenerator", new RandomUUIDGenerator());
+	}
+
+	@Test
+	public void safe() throws InterruptedException {
+		stress("SafeUUIDGenerator", new SafeUUIDGenerator(new TimeBasedUUIDGenerator()));
+	}
+
+	@Test
+	public void timeOrdered() throws InterruptedException {
+		stress("TimeOrderedUUIDGenerator", new TimeOrderedUUIDGenerator());
+	}
+}
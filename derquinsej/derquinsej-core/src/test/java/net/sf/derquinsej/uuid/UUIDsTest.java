@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.uuid;
+
+import static org.testng.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Tests for UUIDs.
+ * @author Andres Rodriguez
+ */
+public class UUIDsTest {
+	private static final int N = 1000000;
+
+	private static List<UUID> uuids() {
+		final List<UUID> list = new RandomUUIDGenerator(EntropySources.fast()).get(1000);
+		list.add(new UUID(0L, 0L));
+		list.add(new UUID(-1L, -1L));
+		list.add(new TimeOrderedUUIDGenerator().get());
+		return list;
+	}
+
+	/**
+	 * Canonical form.
+	 */
+	@Test
+	public void string() {
+		final char[] chars = new char[40];
+		final StringBuilder b = new StringBuilder();
+		final ByteBuffer buffer = ByteBuffer.allocate(40);
+		for (UUID u : uuids()) {
+			final String s = u.toString();
+			assertEquals(UUIDs.toString(u), s);
+			assertEquals(UUIDs.toChars(u, chars, 2), 38);
+			assertEquals(new String(chars, 2, 36), s);
+			b.setLength(0);
+			assertEquals(UUIDs.append(b.append('x'), u).toString(), "x" + s);
+			assertEquals(UUIDs.fromString(s), u);
+			assertEquals(UUIDs.fromString(s.toUpperCase()), u);
+			assertEquals(UUIDs.fromString(b, 1), u);
+			buffer.clear();
+			UUIDs.putString(buffer.put((byte) 0), u).flip();
+			buffer.get();
+			assertEquals(UUIDs.getString(buffer), u);
+			assertEquals(buffer.remaining(), 0);
+		}
+	}
+
+	/**
+	 * Base64url form.
+	 */
+	@Test
+	public void base64() {
+		final BaseEncoding encoding = BaseEncoding.base64Url().omitPadding();
+		for (UUID u : uuids()) {
+			final String s = UUIDs.toBase64(u);
+			assertEquals(s, encoding.encode(UUIDs.toBytes(u)));
+			assertEquals(UUIDs.fromBase64(s), u);
+		}
+	}
+
+	/**
+	 * Binary form.
+	 */
+	@Test
+	public void bytes() {
+		final ByteBuffer buffer = ByteBuffer.allocate(20);
+		for (UUID u : uuids()) {
+			final byte[] bytes = UUIDs.toBytes(u);
+			final ByteBuffer expected = ByteBuffer.wrap(bytes);
+			assertEquals(expected.getLong(), u.getMostSignificantBits());
+			assertEquals(expected.getLong(), u.getLeastSignificantBits());
+			assertEquals(UUIDs.fromBytes(bytes), u);
+			buffer.clear();
+			UUIDs.putBytes(buffer, u).flip();
+			assertEquals(UUIDs.getBytes(buffer), u);
+		}
+	}
+
+	/**
+	 * Time first reordering.
+	 */
+	@Test
+	public void timeFirst() {
+		for (UUID u : uuids()) {
+			assertEquals(UUIDs.fromTimeFirst(UUIDs.toTimeFirst(u)), u);
+		}
+		final UUID u = UUID.fromString("11223344-5566-1788-99aa-bbccddeeff00");
+		assertEquals(UUIDs.toTimeFirst(u), UUID.fromString("17885566-1122-3344-99aa-bbccddeeff00"));
+		// Once reordered, version 1 UUIDs sort by timestamp.
+		for (UUID v1 : new TimeBasedUUIDGenerator().get(1000)) {
+			assertEquals(UUIDs.toTimeFirst(v1).getMostSignificantBits(), 0x1000000000000000L | v1.timestamp());
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void badDash() {
+		UUIDs.fromString("01234567-89ab-cdef-0123x456789abcdef");
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void badDigit() {
+		UUIDs.fromString("01234567-89ab-cdeg-0123-456789abcdef");
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void badLength() {
+		UUIDs.fromString("1-2-3-4-5");
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void badBase64() {
+		UUIDs.fromBase64("AAAAAAAAAAAAAAAAAAAAAB");
+	}
+
+	/**
+	 * Throughput compared with the JDK methods.
+	 */
+	@Test
+	public void throughput() {
+		final List<UUID> list = uuids();
+		final int n = list.size();
+		final StringBuilder b = new StringBuilder();
+		int h = 0;
+		for (int r = 0; r < 2; r++) {
+			long t0 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				h += UUID.fromString(list.get(i % n).toString().toLowerCase()).hashCode();
+			}
+			long t1 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				b.setLength(0);
+				h += UUIDs.fromString(UUIDs.append(b, list.get(i % n))).hashCode();
+			}
+			long t2 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				h += UUIDs.fromString(UUIDs.toString(list.get(i % n))).hashCode();
+			}
+			long t3 = System.nanoTime();
+			System.out.printf("JDK %.1f ns/uuid, UUIDs StringBuilder %.1f ns/uuid, UUIDs String %.1f ns/uuid (%d)\n",
+					(double) (t1 - t0) / N, (double) (t2 - t1) / N, (double) (t3 - t2) / N, h & 1);
+		}
+	}
+}
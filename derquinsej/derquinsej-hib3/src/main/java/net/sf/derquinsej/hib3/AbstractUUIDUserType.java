@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.derquinsej.hib3;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import org.hibernate.HibernateException;
+import org.hibernate.usertype.UserType;
+
+import com.google.common.base.Objects;
+
+/**
+ * Base class for hibernate user types mapping java.util.UUID. Subclasses
+ * provide the SQL type and the conversion.
+ * @author Andres Rodriguez
+ */
+public abstract class AbstractUUIDUserType implements UserType {
+	/** Default constructor. */
+	protected AbstractUUIDUserType() {
+	}
+
+	/* UUIDs are serializable and immutable, so they are their own cached image. */
+	public Object assemble(Serializable cached, Object owner) throws HibernateException {
+		return cached;
+	}
+
+	/* UUIDs are immutable. */
+	public Object deepCopy(Object value) throws HibernateException {
+		return value;
+	}
+
+	/* UUIDs are serializable and immutable, so they are their own cached image. */
+	public Serializable disassemble(Object value) throws HibernateException {
+		return (UUID) value;
+	}
+
+	public boolean equals(Object x, Object y) throws HibernateException {
+		return Objects.equal(x, y);
+	}
+
+	public int hashCode(Object x) throws HibernateException {
+		return x == null ? 0 : x.hashCode();
+	}
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public Object replace(Object original, Object target, Object owner) throws HibernateException {
+		return original;
+	}
+
+	public Class<?> returnedClass() {
+		return UUID.class;
+	}
+}
@@ -15,23 +15,21 @@
  */
 package net.sf.derquinsej.hib3;
 
-import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.UUID;
 
-import org.hibernate.HibernateException;
-import org.hibernate.usertype.UserType;
+import net.sf.derquinsej.uuid.UUIDs;
 
-import com.google.common.base.Objects;
+import org.hibernate.HibernateException;
 
 /**
  * An hibernate user type to store java.util.UUID as Strings.
  * @author Andres Rodriguez
  */
-public class UUIDUserType implements UserType {
+public class UUIDUserType extends AbstractUUIDUserType {
 	/** SQL Types. */
 	private static final int[] TYPES = { Types.VARCHAR };
 
@@ -39,51 +37,16 @@ public class UUIDUserType implements UserType {
 	public UUIDUserType() {
 	}
 
-	/* UUIDs are serializable and immutable, so they are their own cached image. */
-	public Object assemble(Serializable cached, Object owner) throws HibernateException {
-		return cached;
-	}
-
-	/* UUIDs are immutable. */
-	public Object deepCopy(Object value) throws HibernateException {
-		return value;
-	}
-
-	/* UUIDs are serializable and immutable, so they are their own cached image. */
-	public Serializable disassemble(Object value) throws HibernateException {
-		return (UUID) value;
-	}
-
-	public boolean equals(Object x, Object y) throws HibernateException {
-		return Objects.equal(x, y);
-	}
-
-	public int hashCode(Object x) throws HibernateException {
-		return x == null ? 0 : x.hashCode();
-	}
-
-	public boolean isMutable() {
-		return false;
-	}
-
 	public Object nullSafeGet(ResultSet rs, String[] names, Object owner) throws HibernateException, SQLException {
 		final String uuid = rs.getString(names[0]);
-		return uuid == null ? null : UUID.fromString(uuid);
+		return uuid == null ? null : UUIDs.fromString(uuid);
 	}
 
 	public void nullSafeSet(PreparedStatement st, Object value, int index) throws HibernateException, SQLException {
-		final String uuid = (value == null) ? null : value.toString().toLowerCase();
+		final String uuid = (value == null) ? null : UUIDs.toString((UUID) value);
 		st.setString(index, uuid);
 	}
 
-	public Object replace(Object original, Object target, Object owner) throws HibernateException {
-		return original;
-	}
-
-	public Class<?> returnedClass() {
-		return UUID.class;
-	}
-
 	public int[] sqlTypes() {
 		return TYPES;
 	}